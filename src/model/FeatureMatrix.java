@@ -3,35 +3,53 @@ package model;
 import java.awt.Color;
 import java.awt.image.ImageProducer;
 import java.awt.image.MemoryImageSource;
-import java.util.Set;
-import java.util.TreeSet;
-
+import java.util.Arrays;
+
+/**
+ * Matriz de features almacenada en un único arreglo contiguo de enteros.
+ * Los pixels se indexan en orden de filas (pixel = i * width + j) y las
+ * features de cada pixel pueden estar intercaladas (INTERLEAVED) o separadas
+ * en planos por canal (PLANAR).
+ */
 public class FeatureMatrix {
 
-	private int[][][] data;
+	public static enum Layout {
+		INTERLEAVED, PLANAR
+	};
+
+	private int[] data;
 	private int width;
 	private int height;
 	private int depth;
-	private byte[][] segment;
+	private Layout layout;
+	private int[] segment;
 
 	public FeatureMatrix(int width, int height, int depth) {
-		super();
-		this.data = new int[height][width][depth];
+		this(width, height, depth, Layout.INTERLEAVED);
+	}
+
+	public FeatureMatrix(int width, int height, int depth, Layout layout) {
+		this(width, height, depth, layout, true);
+	}
+
+	/**
+	 * Constructor para subclases que guardan las features y los segmentos en
+	 * otro lugar: no se reservan los arreglos y se deben redefinir todos los
+	 * accesos.
+	 */
+	protected FeatureMatrix(int width, int height, int depth, Layout layout,
+			boolean allocate) {
 		this.width = width;
 		this.height = height;
 		this.depth = depth;
-		this.segment = new byte[height][width];
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				this.segment[i][j] = -1;
-			}
+		this.layout = layout;
+		if (allocate) {
+			this.data = new int[width * height * depth];
+			this.segment = new int[width * height];
+			Arrays.fill(segment, -1);
 		}
 	}
 
-	public int[][][] getData() {
-		return data;
-	}
-
 	public int getWidth() {
 		return width;
 	}
@@ -44,20 +62,99 @@ public class FeatureMatrix {
 		return depth;
 	}
 
-	public byte[][] getSegment() {
-		return segment;
+	public Layout getLayout() {
+		return layout;
+	}
+
+	public int getSize() {
+		return width * height;
+	}
+
+	public int pixel(int i, int j) {
+		return i * width + j;
+	}
+
+	public int index(int pixel, int feature) {
+		if (layout == Layout.INTERLEAVED) {
+			return pixel * depth + feature;
+		}
+		return feature * width * height + pixel;
+	}
+
+	public int index(int i, int j, int feature) {
+		return index(pixel(i, j), feature);
+	}
+
+	public int get(int pixel, int feature) {
+		return data[index(pixel, feature)];
+	}
+
+	public int get(int i, int j, int feature) {
+		return get(pixel(i, j), feature);
+	}
+
+	public void set(int pixel, int feature, int value) {
+		data[index(pixel, feature)] = value;
+	}
+
+	public void set(int i, int j, int feature, int value) {
+		set(pixel(i, j), feature, value);
+	}
+
+	public int[] getFeature(int pixel, int[] feature) {
+		if (layout == Layout.INTERLEAVED) {
+			System.arraycopy(data, pixel * depth, feature, 0, depth);
+		} else {
+			int plane = width * height;
+			for (int k = 0, index = pixel; k < depth; k++, index += plane) {
+				feature[k] = data[index];
+			}
+		}
+		return feature;
+	}
+
+	public int[] getFeature(int i, int j, int[] feature) {
+		return getFeature(pixel(i, j), feature);
+	}
+
+	public void setFeature(int pixel, int[] feature) {
+		if (layout == Layout.INTERLEAVED) {
+			System.arraycopy(feature, 0, data, pixel * depth, depth);
+		} else {
+			int plane = width * height;
+			for (int k = 0, index = pixel; k < depth; k++, index += plane) {
+				data[index] = feature[k];
+			}
+		}
+	}
+
+	public void setFeature(int i, int j, int[] feature) {
+		setFeature(pixel(i, j), feature);
+	}
+
+	public int getLabel(int pixel) {
+		return segment[pixel];
+	}
+
+	public int getLabel(int i, int j) {
+		return getLabel(pixel(i, j));
+	}
+
+	public void setLabel(int pixel, int label) {
+		segment[pixel] = label;
+	}
+
+	public void setLabel(int i, int j, int label) {
+		setLabel(pixel(i, j), label);
 	}
 
 	public ImageProducer createSegmentedImage() {
 		int[] segmentedImage = new int[height * width];
 		int segmentCount = segmentCount();
 
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				if (this.segment[i][j] != -1) {
-					segmentedImage[i * width + j] = segmentToColor(
-							this.segment[i][j], segmentCount).getRGB();
-				}
+		for (int p = 0; p < segmentedImage.length; p++) {
+			if (getLabel(p) != -1) {
+				segmentedImage[p] = segmentToColor(getLabel(p), segmentCount);
 			}
 		}
 		return new MemoryImageSource(this.width, this.height, segmentedImage,
@@ -65,33 +162,37 @@ public class FeatureMatrix {
 	}
 
 	public ImageMatrix getImageMatrix() {
-		ImageMatrix im =  new ImageMatrix(width, height);
-		int[][] pixels = im.getPixels();
+		return getImageMatrix(null);
+	}
+
+	/**
+	 * Pinta los segmentos sobre la matriz dada, que se reutiliza si tiene las
+	 * mismas dimensiones; de lo contrario se crea una nueva.
+	 */
+	public ImageMatrix getImageMatrix(ImageMatrix im) {
+		if (im == null || im.getWidth() != width || im.getHeight() != height) {
+			im = new ImageMatrix(width, height);
+		}
+		int[] pixels = im.getPixels();
 		int segmentCount = segmentCount();
 
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				Color c = segmentToColor(segment[i][j], segmentCount);
-				pixels[i][j] = c.getRGB();
-			}
+		for (int p = 0; p < pixels.length; p++) {
+			pixels[p] = segmentToColor(getLabel(p), segmentCount);
 		}
-		
+
 		return im;
 	}
 
+	/* Los segmentos se numeran desde 0, así que alcanza con el máximo */
 	private int segmentCount() {
-
-		Set<Integer> set = new TreeSet<Integer>();
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				set.add(new Integer(segment[i][j]));
-			}
+		int max = -1;
+		for (int p = 0; p < width * height; p++) {
+			max = Math.max(max, getLabel(p));
 		}
-
-		return set.size();
+		return Math.max(1, max + 1);
 	}
 
-	private Color segmentToColor(byte segment, int count) {
-		return Color.getHSBColor(segment / (float) count, 1.0f, 1.0f);
+	private int segmentToColor(int segment, int count) {
+		return Color.HSBtoRGB(segment / (float) count, 1.0f, 1.0f);
 	}
 }
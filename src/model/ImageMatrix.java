@@ -2,78 +2,105 @@ package model;
 
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.ImageProducer;
 import java.awt.image.MemoryImageSource;
 import java.awt.image.PixelGrabber;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.IOException;
 
+/**
+ * Matriz de pixels respaldada directamente por el DataBufferInt de una
+ * BufferedImage TYPE_INT_RGB, de forma que leer, segmentar y guardar no
+ * duplican el buffer de pixels.
+ */
 public class ImageMatrix {
-	
-	int[][] pixels;
+
+	BufferedImage image;
+	int[] pixels;
 	int width;
 	int height;
 
 	public ImageMatrix(int width, int height) {
-		this.width = width;
-		this.height = height;
-		this.pixels = new int[height][width];
+		this(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+	}
+
+	public ImageMatrix(BufferedImage image) {
+		if (!isWrappable(image)) {
+			/* getRGB convierte sin componer el alfa sobre negro como drawImage */
+			int w = image.getWidth();
+			int h = image.getHeight();
+			BufferedImage copy = new BufferedImage(w, h,
+					BufferedImage.TYPE_INT_RGB);
+			int[] rgb = ((DataBufferInt) copy.getRaster().getDataBuffer())
+					.getData();
+			image.getRGB(0, 0, w, h, rgb, 0, w);
+			for (int p = 0; p < rgb.length; p++) {
+				rgb[p] &= 0xFFFFFF;
+			}
+			image = copy;
+		}
+		this.image = image;
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+				.getData();
 	}
-	
+
 	public ImageMatrix(Image image) throws IOException {
-		
+
 		this(image.getWidth(null), image.getHeight(null));
-		this.pixels = new int[height][width];
-	
-		int[] pixelsTemp = new int[this.width * this.height];
-		
-		PixelGrabber grabber = new PixelGrabber(image, 0, 0, this.width, 
-				this.height, pixelsTemp, 0, this.width);
+
+		PixelGrabber grabber = new PixelGrabber(image, 0, 0, this.width,
+				this.height, this.pixels, 0, this.width);
 		try {
 			grabber.grabPixels();
 		} catch (InterruptedException e) {
 			throw new IOException("Error while reading the pixels of the input image.");
 		}
-		
-		for (int i=0; i<this.height; i++) {
-			for (int j=0; j<this.width; j++) {
-				this.pixels[i][j] = pixelsTemp[i*this.width + j];
-			}
+	}
+
+	private static boolean isWrappable(BufferedImage image) {
+		if (image.getType() != BufferedImage.TYPE_INT_RGB
+				|| !(image.getRaster().getDataBuffer() instanceof DataBufferInt)
+				|| !(image.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+			return false;
 		}
+		SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) image
+				.getSampleModel();
+		DataBufferInt buffer = (DataBufferInt) image.getRaster().getDataBuffer();
+		return buffer.getNumBanks() == 1 && buffer.getOffset() == 0
+				&& sm.getScanlineStride() == image.getWidth()
+				&& image.getRaster().getSampleModelTranslateX() == 0
+				&& image.getRaster().getSampleModelTranslateY() == 0;
 	}
 
 	public ImageProducer getImage() {
-		int[] pixelsTemp = new int[this.width * this.height];
-		
-		for (int i=0; i<this.height; i++) {
-			for (int j=0; j<this.width; j++) {
-				pixelsTemp[i * this.width + j] = this.pixels[i][j];
-			}
-		}
-		
-		return new MemoryImageSource(this.width, this.height, pixelsTemp, 0, this.width);
+		return new MemoryImageSource(this.width, this.height,
+				image.getColorModel(), this.pixels, 0, this.width);
 	}
-	
+
 	public BufferedImage getBufferedImage() {
-		BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		
-		for (int i=0; i<this.height; i++) {
-			for (int j=0; j<this.width; j++) {
-				bi.setRGB(j, i, this.pixels[i][j]);
-			}
-		}
-		
-		return bi;
+		return image;
 	}
-	
+
 	public int getHeight() {
 		return height;
 	}
-	
+
 	public int getWidth() {
 		return width;
 	}
-	
-	public int[][] getPixels() {
+
+	public int[] getPixels() {
 		return pixels;
 	}
+
+	public int getPixel(int i, int j) {
+		return pixels[i * width + j];
+	}
+
+	public void setPixel(int i, int j, int rgb) {
+		pixels[i * width + j] = rgb;
+	}
 }
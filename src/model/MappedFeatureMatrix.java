@@ -0,0 +1,142 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * FeatureMatrix cuyas features y segmentos están en archivos mapeados en
+ * memoria en lugar de arreglos de Java, de modo que no ocupan heap ni pasan
+ * por el GC. Cada archivo se mapea en bloques de CHUNK enteros, así que puede
+ * superar los 2 GB.
+ *
+ * Con create() se crea un archivo de features nuevo para llenarlo con un
+ * conversor; con open() se mapea uno existente sólo para lectura, que puede
+ * compartirse entre varias corridas o procesos, cada uno con su propio
+ * archivo de segmentos. Los archivos no tienen encabezado: las dimensiones y
+ * el layout deben ser los mismos con los que se creó.
+ */
+public class MappedFeatureMatrix extends FeatureMatrix {
+
+	private static final int CHUNK_BITS = 26;
+	private static final int CHUNK = 1 << CHUNK_BITS;
+	private static final int MASK = CHUNK - 1;
+
+	private IntBuffer[] data;
+	private IntBuffer[] segment;
+
+	private MappedFeatureMatrix(int width, int height, int depth,
+			Layout layout, File features, FileChannel.MapMode featuresMode,
+			File labels) throws IOException {
+		super(width, height, depth, layout, false);
+		this.data = map(features, featuresMode, (long) width * height * depth);
+		this.segment = map(labels, FileChannel.MapMode.READ_WRITE,
+				(long) width * height);
+		for (int p = 0; p < width * height; p++) {
+			setLabel(p, -1);
+		}
+	}
+
+	/**
+	 * Crea (o sobreescribe) el archivo de features features y el de segmentos
+	 * labels, ambos de lectura y escritura.
+	 */
+	public static MappedFeatureMatrix create(File features, File labels,
+			int width, int height, int depth, Layout layout)
+			throws IOException {
+		return new MappedFeatureMatrix(width, height, depth, layout, features,
+				FileChannel.MapMode.READ_WRITE, labels);
+	}
+
+	/**
+	 * Mapea sólo para lectura un archivo de features ya existente, con un
+	 * archivo de segmentos propio.
+	 */
+	public static MappedFeatureMatrix open(File features, File labels,
+			int width, int height, int depth, Layout layout)
+			throws IOException {
+		long expected = (long) width * height * depth * 4;
+		if (features.length() != expected) {
+			throw new IOException(features + " has " + features.length()
+					+ " bytes, expected " + expected);
+		}
+		return new MappedFeatureMatrix(width, height, depth, layout, features,
+				FileChannel.MapMode.READ_ONLY, labels);
+	}
+
+	private static IntBuffer[] map(File file, FileChannel.MapMode mode,
+			long size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file,
+				(mode == FileChannel.MapMode.READ_ONLY) ? "r" : "rw");
+		try {
+			if (mode != FileChannel.MapMode.READ_ONLY) {
+				raf.setLength(size * 4);
+			}
+			FileChannel channel = raf.getChannel();
+			IntBuffer[] chunks = new IntBuffer[(int) ((size + CHUNK - 1) / CHUNK)];
+			for (int c = 0; c < chunks.length; c++) {
+				long from = (long) c * CHUNK;
+				long length = Math.min(CHUNK, size - from);
+				MappedByteBuffer buffer = channel.map(mode, from * 4, length * 4);
+				buffer.order(ByteOrder.nativeOrder());
+				chunks[c] = buffer.asIntBuffer();
+			}
+			/* El mapeo sigue siendo válido después de cerrar el archivo */
+			return chunks;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static int get(IntBuffer[] chunks, long index) {
+		return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & MASK));
+	}
+
+	private static void put(IntBuffer[] chunks, long index, int value) {
+		chunks[(int) (index >>> CHUNK_BITS)].put((int) (index & MASK), value);
+	}
+
+	/*
+	 * Como index(pixel, feature), pero en long: el volumen de features puede
+	 * tener más de 2^31 valores.
+	 */
+	private long offset(int pixel, int feature) {
+		if (getLayout() == Layout.INTERLEAVED) {
+			return (long) pixel * getDepth() + feature;
+		}
+		return (long) feature * getSize() + pixel;
+	}
+
+	public int get(int pixel, int feature) {
+		return get(data, offset(pixel, feature));
+	}
+
+	public void set(int pixel, int feature, int value) {
+		put(data, offset(pixel, feature), value);
+	}
+
+	public int[] getFeature(int pixel, int[] feature) {
+		for (int k = 0; k < getDepth(); k++) {
+			feature[k] = get(data, offset(pixel, k));
+		}
+		return feature;
+	}
+
+	public void setFeature(int pixel, int[] feature) {
+		for (int k = 0; k < getDepth(); k++) {
+			put(data, offset(pixel, k), feature[k]);
+		}
+	}
+
+	public int getLabel(int pixel) {
+		return get(segment, pixel);
+	}
+
+	public void setLabel(int pixel, int label) {
+		put(segment, pixel, label);
+	}
+}
@@ -0,0 +1,361 @@
+package model;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import model.converters.ImageConverter;
+import model.segmentation.ConnectedComponents;
+import model.segmentation.SegmentationAlgorithm;
+
+/**
+ * Segmentación por tiles de imágenes que no entran en memoria.
+ *
+ * Cada tile se decodifica con un ImageReader pidiendo sólo su región (más un
+ * margen de "overlap" pixels hacia cada lado), se convierte y se segmenta por
+ * separado. Los segmentos de cada tile reciben números globales distintos y
+ * los del núcleo del tile, sin el margen, se guardan en un archivo temporal
+ * de enteros. Sobre la fila y la columna que rodean al núcleo, ya escritas por
+ * los tiles anteriores, cada segmento del tile se une con el segmento global
+ * con el que más pixels comparte, en un union-find que crece con la cantidad
+ * de segmentos. Tomar sólo la mayoría evita que un pixel suelto que coincide
+ * encadene segmentos no relacionados cuando el algoritmo no da segmentos
+ * conexos. Al final la imagen segmentada se escribe fila por fila como PPM.
+ *
+ * Si "minRegionArea" es positivo, cada tile pasa por ConnectedComponents antes
+ * de unir sus costuras.
+ *
+ * El algoritmo de cada tile corre en su propio thread; si se interrumpe el
+ * thread que llama a segment(), se interrumpe también el algoritmo.
+ *
+ * La memoria usada es proporcional al tamaño del tile y a la cantidad de
+ * segmentos, no al tamaño de la imagen.
+ */
+public class TiledSegmentation {
+
+	/**
+	 * Crea el conversor y el algoritmo de cada tile; un algoritmo es un Thread
+	 * y no se puede volver a usar.
+	 */
+	public static interface Factory {
+
+		public ImageConverter createConverter(ImageMatrix tile);
+
+		public SegmentationAlgorithm createAlgorithm();
+
+	}
+
+	private File input;
+	private int tileSize;
+	private int overlap;
+
+	private int width;
+	private int height;
+
+	private int labelCount;
+	private int[] parent = new int[64];
+
+	/* Pares (segmento del tile, segmento guardado) de la costura del tile */
+	private long[] seam = new long[64];
+	private int seamCount;
+
+	public TiledSegmentation(File input, int tileSize, int overlap) {
+		this.input = input;
+		this.tileSize = Math.max(1, tileSize);
+		this.overlap = Math.max(1, overlap);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Segmenta la imagen de entrada tile por tile y escribe el resultado en
+	 * output. El observer, si no es null, recibe un onChange por tile y un
+	 * onComplete al final. Devuelve la cantidad de segmentos.
+	 */
+	public int segment(Factory factory, HashMap<String, String> params,
+			File output, SegmentationObserver observer) throws IOException {
+		ImageInputStream stream = ImageIO.createImageInputStream(input);
+		if (stream == null) {
+			throw new IOException("Cannot open " + input);
+		}
+		File labels = File.createTempFile("segmentation", ".labels");
+		labels.deleteOnExit();
+		RandomAccessFile file = new RandomAccessFile(labels, "rw");
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image format: " + input);
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream, true, true);
+				width = reader.getWidth(0);
+				height = reader.getHeight(0);
+				file.setLength((long) width * height * 4);
+				FileChannel channel = file.getChannel();
+
+				labelCount = 0;
+				for (int y = 0; y < height; y += tileSize) {
+					for (int x = 0; x < width; x += tileSize) {
+						if (Thread.currentThread().isInterrupted()) {
+							return 0;
+						}
+						segmentTile(reader, channel, factory, params, x, y);
+						if (observer != null) {
+							observer.onChange();
+						}
+					}
+				}
+				if (Thread.currentThread().isInterrupted()) {
+					return 0;
+				}
+				int count = write(channel, output);
+				if (observer != null) {
+					observer.onComplete();
+				}
+				return count;
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			file.close();
+			stream.close();
+			labels.delete();
+		}
+	}
+
+	private void segmentTile(ImageReader reader, FileChannel channel,
+			Factory factory, HashMap<String, String> params, int x, int y)
+			throws IOException {
+		int xTo = Math.min(x + tileSize, width);
+		int yTo = Math.min(y + tileSize, height);
+		Rectangle region = new Rectangle(x, y, xTo - x, yTo - y);
+		region.grow(overlap, overlap);
+		region = region.intersection(new Rectangle(0, 0, width, height));
+
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceRegion(region);
+		BufferedImage tile = reader.read(0, param);
+		FeatureMatrix features = factory.createConverter(new ImageMatrix(tile))
+				.createFeatureMatrix();
+		tile = null;
+
+		SegmentationAlgorithm algorithm = factory.createAlgorithm();
+		algorithm.process(features, new SegmentationObserver() {
+
+			public void onChange() {
+			}
+
+			public void onComplete() {
+			}
+
+		}, params);
+		final Throwable[] failure = new Throwable[1];
+		algorithm.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+
+			public void uncaughtException(Thread t, Throwable e) {
+				failure[0] = e;
+			}
+
+		});
+		algorithm.start();
+		try {
+			algorithm.join();
+		} catch (InterruptedException e) {
+			algorithm.interrupt();
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if (failure[0] != null) {
+			throw new IOException("Segmentation of tile failed", failure[0]);
+		}
+
+		/* minRegionArea se aplica dentro del tile, antes de las costuras */
+		String s = params.get("minRegionArea");
+		if (s != null && new Integer(s) > 0) {
+			String t = params.get("threads");
+			new ConnectedComponents(features, (t == null) ? Runtime
+					.getRuntime().availableProcessors() : new Integer(t))
+					.relabel(new Integer(s));
+		}
+
+		/* Los segmentos del tile pasan a ser labelCount, labelCount + 1, ... */
+		int offset = labelCount;
+		int tileLabels = 0;
+		for (int p = 0; p < features.getSize(); p++) {
+			tileLabels = Math.max(tileLabels, features.getLabel(p) + 1);
+		}
+		labelCount += tileLabels;
+		if (labelCount > parent.length) {
+			parent = Arrays.copyOf(parent, Math.max(labelCount,
+					parent.length * 2));
+		}
+		for (int l = offset; l < labelCount; l++) {
+			parent[l] = l;
+		}
+
+		/*
+		 * Costuras: la fila sobre el núcleo y la columna a su izquierda ya
+		 * fueron escritas por los tiles anteriores.
+		 */
+		seamCount = 0;
+		if (y > 0) {
+			int from = Math.max(x - 1, region.x);
+			int to = Math.min(xTo + 1, region.x + region.width);
+			int[] row = read(channel, y - 1, from, to);
+			for (int i = from; i < to; i++) {
+				collect(row[i - from], features, i - region.x, y - 1
+						- region.y);
+			}
+		}
+		if (x > 0) {
+			for (int j = y; j < yTo; j++) {
+				int[] cell = read(channel, j, x - 1, x);
+				collect(cell[0], features, x - 1 - region.x, j - region.y);
+			}
+		}
+		joinSeam(offset);
+
+		/* Núcleo */
+		ByteBuffer buffer = ByteBuffer.allocate((xTo - x) * 4);
+		for (int j = y; j < yTo; j++) {
+			buffer.clear();
+			IntBuffer ints = buffer.asIntBuffer();
+			for (int i = x; i < xTo; i++) {
+				int label = features.getLabel(j - region.y, i - region.x);
+				ints.put(label < 0 ? -1 : offset + label);
+			}
+			channel.write(buffer, ((long) j * width + x) * 4);
+		}
+	}
+
+	/* Registra el par del segmento global stored y el del tile en (i, j) */
+	private void collect(int stored, FeatureMatrix features, int i, int j) {
+		int label = features.getLabel(j, i);
+		if (stored < 0 || label < 0) {
+			return;
+		}
+		if (seamCount == seam.length) {
+			seam = Arrays.copyOf(seam, seamCount * 2);
+		}
+		seam[seamCount++] = ((long) label << 32) | stored;
+	}
+
+	/*
+	 * Une cada segmento del tile con el segmento guardado que más veces
+	 * aparece junto a él en la costura; a igual cantidad gana el menor. Los
+	 * pares ordenados quedan agrupados por segmento del tile.
+	 */
+	private void joinSeam(int offset) {
+		Arrays.sort(seam, 0, seamCount);
+		int start = 0;
+		while (start < seamCount) {
+			int label = (int) (seam[start] >>> 32);
+			int best = -1, bestCount = 0;
+			int end = start;
+			while (end < seamCount && (int) (seam[end] >>> 32) == label) {
+				int run = end;
+				while (end < seamCount && seam[end] == seam[run]) {
+					end++;
+				}
+				if (end - run > bestCount) {
+					bestCount = end - run;
+					best = (int) seam[run];
+				}
+			}
+			int a = find(parent, best);
+			int b = find(parent, offset + label);
+			if (a != b) {
+				parent[Math.max(a, b)] = Math.min(a, b);
+			}
+			start = end;
+		}
+	}
+
+	private int[] read(FileChannel channel, int row, int from, int to)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((to - from) * 4);
+		long position = ((long) row * width + from) * 4;
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		int[] labels = new int[to - from];
+		buffer.asIntBuffer().get(labels);
+		return labels;
+	}
+
+	/*
+	 * Renumera los segmentos unidos y escribe la imagen fila por fila en
+	 * formato PPM binario.
+	 */
+	private int write(FileChannel channel, File output) throws IOException {
+		int[] ids = new int[labelCount];
+		int count = 0;
+		for (int l = 0; l < labelCount; l++) {
+			int root = find(parent, l);
+			ids[l] = (root == l) ? count++ : ids[root];
+		}
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				output));
+		try {
+			out.write(("P6\n" + width + " " + height + "\n255\n")
+					.getBytes("US-ASCII"));
+			byte[] rgb = new byte[width * 3];
+			for (int y = 0; y < height; y++) {
+				int[] row = read(channel, y, 0, width);
+				for (int x = 0; x < width; x++) {
+					int color = (row[x] < 0) ? 0 : Color.getHSBColor(
+							ids[row[x]] / (float) count, 1.0f, 1.0f).getRGB();
+					rgb[x * 3] = (byte) (color >> 16);
+					rgb[x * 3 + 1] = (byte) (color >> 8);
+					rgb[x * 3 + 2] = (byte) color;
+				}
+				out.write(rgb);
+			}
+		} finally {
+			out.close();
+		}
+		return count;
+	}
+
+	/* Como la raíz es siempre el menor del conjunto, ids se llena en orden */
+	private static int find(int[] parent, int element) {
+		int root = element;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		while (parent[element] != root) {
+			int next = parent[element];
+			parent[element] = root;
+			element = next;
+		}
+		return root;
+	}
+}
@@ -14,7 +14,7 @@ public class ColorImageConverter extends ImageConverter {
 	
 	@Override
 	protected void createFeature(int i, int j, int[] feature) {
-		Color c = new Color(image.getPixels()[i][j]);
+		Color c = new Color(image.getPixel(i, j));
 		String colorSpace = params.get("colorSpace");
 		if (colorSpace == null || colorSpace.equalsIgnoreCase("RGB")) {
 			feature[0] = c.getRed();
@@ -33,7 +33,7 @@ public class ColorImageConverter extends ImageConverter {
 	}
 
 	@Override
-	protected int getDepth() {
+	public int getDepth() {
 		String colorSpace = params.get("colorSpace");
 		if (colorSpace != null && colorSpace.equalsIgnoreCase("GRAYSCALE")) {
 			return 1;
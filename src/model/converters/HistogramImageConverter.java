@@ -44,8 +44,8 @@ public class HistogramImageConverter extends ImageConverter {
 					&& j + xmoves[k] > 0
 					&& j + xmoves[k] < this.image.getWidth()) {
 
-				components = getColorComponents(this.image.getPixels()[i
-						+ ymoves[k]][j + xmoves[k]]);
+				components = getColorComponents(this.image.getPixel(i
+						+ ymoves[k], j + xmoves[k]));
 
 				feature[(int) Math.floor((components[0] / 256.0)
 						* intervalClassesCountPerChannel)]++;
@@ -78,7 +78,7 @@ public class HistogramImageConverter extends ImageConverter {
 	}
 
 	@Override
-	protected int getDepth() {
+	public int getDepth() {
 		int n = 3;
 		String s = params.get("colorSpace");
 		if (s != null && s.equalsIgnoreCase("grayscale")) {
@@ -1,5 +1,6 @@
 package model.converters;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 import model.FeatureMatrix;
@@ -15,19 +16,46 @@ public abstract class ImageConverter {
 	}
 
 	public FeatureMatrix createFeatureMatrix() {
-		FeatureMatrix imageMatrix = new FeatureMatrix(image.getWidth(), 
-					image.getHeight(), this.getDepth());
+		return createFeatureMatrix(new FeatureMatrix(image.getWidth(),
+				image.getHeight(), this.getDepth(), this.getLayout()));
+	}
+
+	/**
+	 * Llena con las features de la imagen una matriz ya creada, por ejemplo
+	 * una MappedFeatureMatrix, que debe tener sus dimensiones y profundidad.
+	 */
+	public FeatureMatrix createFeatureMatrix(FeatureMatrix imageMatrix) {
+		if (imageMatrix.getWidth() != image.getWidth()
+				|| imageMatrix.getHeight() != image.getHeight()
+				|| imageMatrix.getDepth() != this.getDepth()) {
+			throw new IllegalArgumentException("Feature matrix is "
+					+ imageMatrix.getWidth() + "x" + imageMatrix.getHeight()
+					+ "x" + imageMatrix.getDepth() + ", expected "
+					+ image.getWidth() + "x" + image.getHeight() + "x"
+					+ this.getDepth());
+		}
+		int[] feature = new int[this.getDepth()];
 		
 		for (int i=0; i<image.getHeight(); i++) {
 			for (int j=0; j<image.getWidth(); j++) {
-				createFeature(i, j, imageMatrix.getData()[i][j]);
+				Arrays.fill(feature, 0);
+				createFeature(i, j, feature);
+				imageMatrix.setFeature(i, j, feature);
 			}
 		}
 		
 		return imageMatrix;
 	}
 
-	protected abstract int getDepth();
+	public FeatureMatrix.Layout getLayout() {
+		String layout = params.get("layout");
+		if (layout != null && layout.equalsIgnoreCase("PLANAR")) {
+			return FeatureMatrix.Layout.PLANAR;
+		}
+		return FeatureMatrix.Layout.INTERLEAVED;
+	}
+
+	public abstract int getDepth();
 
 	protected abstract void createFeature(int i, int j, int[] feature);
 }
@@ -0,0 +1,202 @@
+package model.segmentation;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import model.FeatureMatrix;
+import model.SegmentationObserver;
+
+/**
+ * Segmentación por clustering con un Antipole tree.
+ *
+ * Cada nodo del árbol es un rango de un arreglo de índices de pixels. Si el
+ * rango tiene diámetro mayor que "diameter" se elige un par antipolo (dos
+ * features aproximadamente a distancia máxima) y el rango se particiona en el
+ * lugar según a cuál de los dos está más cerca cada pixel; si no, el rango es
+ * una hoja y sus pixels forman un cluster.
+ *
+ * El par antipolo se busca con un torneo: los candidatos se agrupan al azar de
+ * a tres y de cada grupo pasan a la ronda siguiente los dos más lejanos, hasta
+ * que quedan a lo sumo tres. Cada torneo es lineal en el tamaño del nodo, así
+ * que construir el árbol cuesta O(n log n) cuando las particiones son
+ * equilibradas, sin iterar como K-means.
+ */
+public class AntipoleTree extends SegmentationAlgorithm {
+
+	private static final int TOURNAMENT_SIZE = 3;
+
+	private FeatureMatrix image;
+	private SegmentationObserver observer;
+
+	private double diameter = 40;
+	private Long seed = null;
+
+	private int depth;
+	private int[] points;
+	private int[] candidates;
+	private Random random;
+
+	public void process(FeatureMatrix image, SegmentationObserver observer,
+			HashMap<String, String> params) {
+		this.image = image;
+		this.observer = observer;
+		this.depth = image.getDepth();
+
+		String s;
+		s = params.get("diameter");
+		if (s != null) {
+			diameter = new Double(s);
+		}
+		s = params.get("seed");
+		if (s != null) {
+			seed = new Long(s);
+		}
+	}
+
+	public void run() {
+		int size = image.getSize();
+		points = new int[size];
+		candidates = new int[size];
+		for (int p = 0; p < size; p++) {
+			points[p] = p;
+		}
+		random = (seed == null) ? new Random() : new Random(seed);
+
+		/*
+		 * Pila explícita de rangos [from, to) pendientes: una partición muy
+		 * desequilibrada no debe desbordar la pila del thread.
+		 */
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = size;
+		int clusters = 0;
+		double limit = diameter * diameter;
+
+		while (top > 0) {
+			if (isInterrupted()) {
+				return;
+			}
+			int to = stack[--top];
+			int from = stack[--top];
+
+			long[] antipole = antipole(from, to);
+			int a = (int) antipole[0];
+			int b = (int) antipole[1];
+			if (antipole[2] <= limit) {
+				for (int i = from; i < to; i++) {
+					image.setLabel(points[i], clusters);
+				}
+				clusters++;
+				continue;
+			}
+
+			int middle = partition(from, to, a, b);
+			if (top + 4 > stack.length) {
+				int[] aux = new int[stack.length * 2];
+				System.arraycopy(stack, 0, aux, 0, top);
+				stack = aux;
+			}
+			stack[top++] = middle;
+			stack[top++] = to;
+			stack[top++] = from;
+			stack[top++] = middle;
+		}
+
+		if (observer != null) {
+			observer.onChange();
+			observer.onComplete();
+		}
+	}
+
+	/*
+	 * Torneo sobre points[from, to). Devuelve los dos pixels del par antipolo
+	 * y el cuadrado de su distancia.
+	 */
+	private long[] antipole(int from, int to) {
+		int count = to - from;
+		System.arraycopy(points, from, candidates, 0, count);
+
+		while (count > TOURNAMENT_SIZE) {
+			shuffle(count);
+			int winners = 0;
+			int i = 0;
+			for (; i + TOURNAMENT_SIZE <= count; i += TOURNAMENT_SIZE) {
+				int p = candidates[i];
+				int q = candidates[i + 1];
+				int r = candidates[i + 2];
+				long pq = distance(p, q);
+				long pr = distance(p, r);
+				long qr = distance(q, r);
+				if (pq >= pr && pq >= qr) {
+					candidates[winners++] = p;
+					candidates[winners++] = q;
+				} else if (pr >= qr) {
+					candidates[winners++] = p;
+					candidates[winners++] = r;
+				} else {
+					candidates[winners++] = q;
+					candidates[winners++] = r;
+				}
+			}
+			/* Los que no completan un grupo pasan directamente */
+			for (; i < count; i++) {
+				candidates[winners++] = candidates[i];
+			}
+			count = winners;
+		}
+
+		long[] best = new long[] { candidates[0], candidates[0], 0 };
+		for (int i = 0; i < count; i++) {
+			for (int j = i + 1; j < count; j++) {
+				long d = distance(candidates[i], candidates[j]);
+				if (d > best[2]) {
+					best[0] = candidates[i];
+					best[1] = candidates[j];
+					best[2] = d;
+				}
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * Deja en points[from, middle) los pixels más cercanos a a que a b, y el
+	 * resto en points[middle, to). a y b quedan en lados distintos, así que
+	 * ambas mitades son no vacías.
+	 */
+	private int partition(int from, int to, int a, int b) {
+		int i = from;
+		int j = to - 1;
+		while (i <= j) {
+			int p = points[i];
+			if (p != b && (p == a || distance(p, a) <= distance(p, b))) {
+				i++;
+			} else {
+				points[i] = points[j];
+				points[j] = p;
+				j--;
+			}
+		}
+		return i;
+	}
+
+	private void shuffle(int count) {
+		for (int i = count - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int aux = candidates[i];
+			candidates[i] = candidates[j];
+			candidates[j] = aux;
+		}
+	}
+
+	/* Cuadrado de la distancia euclídea entre las features de p y q */
+	private long distance(int p, int q) {
+		long acum = 0;
+		for (int k = 0; k < depth; k++) {
+			long d = image.get(p, k) - image.get(q, k);
+			acum += d * d;
+		}
+		return acum;
+	}
+}
@@ -0,0 +1,342 @@
+package model.segmentation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.FeatureMatrix;
+
+/**
+ * Etapa de post-procesamiento que reemplaza los segmentos de una
+ * FeatureMatrix por sus componentes conexas (a 4 vecinos) y absorbe las
+ * componentes chicas en su vecina más parecida.
+ *
+ * El etiquetado es en dos pasadas: la imagen se reparte en bandas de filas que
+ * se unen en paralelo, cada una sobre su propio rango del UnionFind, y luego
+ * se unen en secuencia las filas de borde entre bandas. La absorción arma una
+ * vez el grafo de adyacencia entre componentes y recorre las de menos de
+ * minRegionArea pixels de la más chica a la más grande: cada una se une a la
+ * vecina de media de features más cercana hasta alcanzar el área mínima.
+ */
+public class ConnectedComponents {
+
+	private FeatureMatrix image;
+	private int threads;
+
+	private int width;
+	private int height;
+	private int depth;
+
+	private int componentCount;
+	private int[] components; /* componente de cada pixel */
+	private int[] areas;
+	private long[] sums; /* sumas de features por componente */
+
+	/* Listas enlazadas de vecinas por componente */
+	private int[] head;
+	private int[] tail;
+	private int[] neighbours;
+	private int[] next;
+	private int entryCount;
+
+	public ConnectedComponents(FeatureMatrix image, int threads) {
+		this.image = image;
+		this.threads = Math.max(1, threads);
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.depth = image.getDepth();
+	}
+
+	/**
+	 * Reetiqueta la imagen en componentes conexas, absorbiendo las de menos
+	 * de minRegionArea pixels. Devuelve la cantidad de segmentos resultante.
+	 */
+	public int relabel(int minRegionArea) {
+		label();
+		if (minRegionArea > 1) {
+			absorb(minRegionArea);
+		}
+		for (int p = 0; p < components.length; p++) {
+			image.setLabel(p, components[p]);
+		}
+		return componentCount;
+	}
+
+	private void label() {
+		int size = image.getSize();
+		UnionFind pixels = new UnionFind(size);
+
+		int bandCount = Math.min(height, threads == 1 ? 1 : threads * 4);
+		int[] starts = new int[bandCount + 1];
+		for (int b = 0; b <= bandCount; b++) {
+			starts[b] = b * height / bandCount;
+		}
+
+		/* Primera pasada: cada banda sólo toca los pixels de sus filas */
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			Band[] bands = new Band[bandCount];
+			for (int b = 0; b < bandCount; b++) {
+				bands[b] = new Band(pixels, starts[b], starts[b + 1]);
+				pool.execute(bands[b]);
+			}
+			for (Band band : bands) {
+				band.join();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		for (int b = 1; b < bandCount; b++) {
+			int y = starts[b];
+			for (int x = 0; x < width; x++) {
+				int p = image.pixel(y, x);
+				int q = image.pixel(y - 1, x);
+				if (image.getLabel(p) == image.getLabel(q)) {
+					pixels.union(p, q);
+				}
+			}
+		}
+
+		/* Segunda pasada: se numeran las raíces en orden de aparición */
+		components = new int[size];
+		int[] ids = new int[size];
+		Arrays.fill(ids, -1);
+		componentCount = 0;
+		for (int p = 0; p < size; p++) {
+			int root = pixels.find(p);
+			if (ids[root] < 0) {
+				ids[root] = componentCount++;
+			}
+			components[p] = ids[root];
+		}
+	}
+
+	/*
+	 * Une las componentes chicas con su vecina más parecida en una sola
+	 * pasada, de la más chica a la más grande. Cada componente guarda sus
+	 * vecinas en una lista enlazada; al unir dos componentes las listas se
+	 * empalman, y al recorrerlas se descartan las entradas que ya apuntan a
+	 * la misma región. Una región que sigue siendo chica después de unirse
+	 * sigue absorbiendo en el momento.
+	 */
+	private void absorb(int minRegionArea) {
+		areas = new int[componentCount];
+		sums = new long[componentCount * depth];
+		int[] feature = new int[depth];
+		for (int p = 0; p < components.length; p++) {
+			int c = components[p];
+			areas[c]++;
+			image.getFeature(p, feature);
+			for (int k = 0; k < depth; k++) {
+				sums[c * depth + k] += feature[k];
+			}
+		}
+		buildAdjacency();
+
+		/* Componentes chicas ordenadas por área con un counting sort */
+		int[] starts = new int[minRegionArea + 1];
+		for (int c = 0; c < componentCount; c++) {
+			if (areas[c] < minRegionArea) {
+				starts[areas[c] + 1]++;
+			}
+		}
+		for (int a = 0; a < minRegionArea; a++) {
+			starts[a + 1] += starts[a];
+		}
+		int[] order = new int[starts[minRegionArea]];
+		for (int c = 0; c < componentCount; c++) {
+			if (areas[c] < minRegionArea) {
+				order[starts[areas[c]]++] = c;
+			}
+		}
+
+		UnionFind regions = new UnionFind(componentCount);
+		for (int c : order) {
+			int root = regions.find(c);
+			while (areas[root] < minRegionArea) {
+				int best = closestNeighbour(regions, root);
+				if (best < 0) {
+					break;
+				}
+				int merged = regions.union(root, best);
+				int other = (merged == root) ? best : root;
+				areas[merged] += areas[other];
+				for (int k = 0; k < depth; k++) {
+					sums[merged * depth + k] += sums[other * depth + k];
+				}
+				splice(merged, other);
+				root = merged;
+			}
+		}
+		compact(regions);
+	}
+
+	/*
+	 * Arma las listas de vecinas recorriendo los pares de pixels adyacentes de
+	 * distinta componente. Los pares iguales al anterior se saltean, así un
+	 * borde largo entre dos componentes aporta pocas entradas.
+	 */
+	private void buildAdjacency() {
+		head = new int[componentCount];
+		tail = new int[componentCount];
+		Arrays.fill(head, -1);
+		Arrays.fill(tail, -1);
+		neighbours = new int[64];
+		next = new int[64];
+		entryCount = 0;
+
+		int lastA = -1, lastB = -1;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x + 1 < width; x++) {
+				int a = components[image.pixel(y, x)];
+				int b = components[image.pixel(y, x + 1)];
+				if (a != b && (a != lastA || b != lastB)) {
+					addNeighbours(a, b);
+					lastA = a;
+					lastB = b;
+				}
+			}
+		}
+		for (int y = 0; y + 1 < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int a = components[image.pixel(y, x)];
+				int b = components[image.pixel(y + 1, x)];
+				if (a != b && (a != lastA || b != lastB)) {
+					addNeighbours(a, b);
+					lastA = a;
+					lastB = b;
+				}
+			}
+		}
+	}
+
+	private void addNeighbours(int a, int b) {
+		if (entryCount + 2 > neighbours.length) {
+			neighbours = Arrays.copyOf(neighbours, neighbours.length * 2);
+			next = Arrays.copyOf(next, next.length * 2);
+		}
+		append(a, b);
+		append(b, a);
+	}
+
+	private void append(int component, int neighbour) {
+		int entry = entryCount++;
+		neighbours[entry] = neighbour;
+		next[entry] = -1;
+		if (tail[component] < 0) {
+			head[component] = entry;
+		} else {
+			next[tail[component]] = entry;
+		}
+		tail[component] = entry;
+	}
+
+	/* Pasa la lista de vecinas de other al final de la de root */
+	private void splice(int root, int other) {
+		if (head[other] < 0) {
+			return;
+		}
+		if (tail[root] < 0) {
+			head[root] = head[other];
+		} else {
+			next[tail[root]] = head[other];
+		}
+		tail[root] = tail[other];
+		head[other] = -1;
+		tail[other] = -1;
+	}
+
+	/*
+	 * Devuelve la región vecina de media más cercana a la de root, o -1 si no
+	 * tiene vecinas. Las entradas que ya caen dentro de root se quitan.
+	 */
+	private int closestNeighbour(UnionFind regions, int root) {
+		int best = -1;
+		double bestDistance = Double.MAX_VALUE;
+		int previous = -1;
+		for (int entry = head[root]; entry >= 0; entry = next[entry]) {
+			int neighbour = regions.find(neighbours[entry]);
+			if (neighbour == root) {
+				if (previous < 0) {
+					head[root] = next[entry];
+				} else {
+					next[previous] = next[entry];
+				}
+				if (tail[root] == entry) {
+					tail[root] = previous;
+				}
+				continue;
+			}
+			neighbours[entry] = neighbour;
+			previous = entry;
+			double distance = distance(root, neighbour);
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = neighbour;
+			}
+		}
+		return best;
+	}
+
+	/* Cuadrado de la distancia entre las medias de a y b */
+	private double distance(int a, int b) {
+		double acum = 0;
+		for (int k = 0; k < depth; k++) {
+			double d = sums[a * depth + k] / (double) areas[a]
+					- sums[b * depth + k] / (double) areas[b];
+			acum += d * d;
+		}
+		return acum;
+	}
+
+	/* Renumera las componentes según los conjuntos de regions */
+	private void compact(UnionFind regions) {
+		int[] ids = new int[componentCount];
+		Arrays.fill(ids, -1);
+		int count = 0;
+		for (int c = 0; c < componentCount; c++) {
+			int root = regions.find(c);
+			if (ids[root] < 0) {
+				ids[root] = count++;
+			}
+			ids[c] = ids[root];
+		}
+		for (int p = 0; p < components.length; p++) {
+			components[p] = ids[components[p]];
+		}
+		componentCount = count;
+	}
+
+	/**
+	 * Banda de filas [start, end) que une cada pixel con sus vecinos izquierdo
+	 * y superior de igual segmento dentro de la banda.
+	 */
+	class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private UnionFind pixels;
+		private int start;
+		private int end;
+
+		public Band(UnionFind pixels, int start, int end) {
+			this.pixels = pixels;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			for (int y = start; y < end; y++) {
+				for (int x = 0; x < width; x++) {
+					int p = image.pixel(y, x);
+					int label = image.getLabel(p);
+					if (x > 0 && image.getLabel(p - 1) == label) {
+						pixels.union(p, p - 1);
+					}
+					if (y > start && image.getLabel(p - width) == label) {
+						pixels.union(p, p - width);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package model.segmentation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.FeatureMatrix;
+import model.SegmentationObserver;
+
+/**
+ * Segmentación por una mezcla de gaussianas de covarianza diagonal, entrenada
+ * con EM.
+ *
+ * El entrenamiento usa una muestra de "sampleSize" pixels (0 para usar toda la
+ * imagen) y termina cuando la log-verosimilitud media mejora menos que
+ * "tolerance" o tras "maxIterations" iteraciones. Las medias iniciales se
+ * eligen con k-means++ sobre la misma muestra.
+ *
+ * Cada iteración reparte la muestra en bloques sobre un ForkJoinPool de
+ * "threads" workers. Un bloque calcula las responsabilidades de cada punto
+ * con log-sum-exp y las acumula en sus propios arreglos de pesos, sumas y
+ * sumas de cuadrados por componente, que luego se combinan para el paso M. Al
+ * final una única pasada en paralelo etiqueta cada pixel de la imagen con su
+ * componente más probable.
+ */
+public class GaussianMixture extends SegmentationAlgorithm {
+
+	/* Varianza mínima, para que una componente no colapse sobre un valor */
+	private static final double MIN_VARIANCE = 1;
+
+	private FeatureMatrix image;
+	private SegmentationObserver observer;
+
+	private int clustersCount = 10;
+	private int maxIterations = 100;
+	private double tolerance = 1e-4;
+	private int sampleSize = 20000;
+	private Long seed = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private int depth;
+	private int[] sample;
+	private int sampleCount;
+
+	private double[] means;
+	private double[] variances;
+	/* log(peso) - 0.5 * suma de log(2 pi varianza) de cada componente */
+	private double[] constants;
+
+	private ForkJoinPool pool;
+
+	public void process(FeatureMatrix image, SegmentationObserver observer,
+			HashMap<String, String> params) {
+		this.image = image;
+		this.observer = observer;
+		this.depth = image.getDepth();
+
+		String s;
+		s = params.get("clustersCount");
+		if (s != null) {
+			clustersCount = Math.max(1, new Integer(s));
+		}
+		s = params.get("maxIterations");
+		if (s != null) {
+			maxIterations = new Integer(s);
+		}
+		s = params.get("tolerance");
+		if (s != null) {
+			tolerance = new Double(s);
+		}
+		s = params.get("sampleSize");
+		if (s != null) {
+			sampleSize = new Integer(s);
+		}
+		s = params.get("seed");
+		if (s != null) {
+			seed = new Long(s);
+		}
+		s = params.get("threads");
+		if (s != null) {
+			threads = Math.max(1, new Integer(s));
+		}
+	}
+
+	public void run() {
+		Random r = (seed == null) ? new Random() : new Random(seed);
+		int size = image.getSize();
+		sample = Seeding.sample(image, (sampleSize <= 0) ? size : sampleSize,
+				r);
+		sampleCount = sample.length / depth;
+		initialize(r);
+
+		pool = new ForkJoinPool(threads);
+		try {
+			int chunkCount = (threads == 1) ? 1 : threads * 4;
+			Chunk[] chunks = new Chunk[chunkCount];
+			for (int c = 0; c < chunkCount; c++) {
+				chunks[c] = new Chunk(c * sampleCount / chunkCount, (c + 1)
+						* sampleCount / chunkCount);
+			}
+
+			/* EM */
+			double previous = Double.NEGATIVE_INFINITY;
+			for (int iteration = 0; iteration < maxIterations
+					&& !isInterrupted(); iteration++) {
+				double logLikelihood = expectation(chunks) / sampleCount;
+				maximization(chunks);
+				if (logLikelihood - previous < tolerance) {
+					break;
+				}
+				previous = logLikelihood;
+			}
+			if (isInterrupted()) {
+				return;
+			}
+
+			/* Etiquetado de toda la imagen */
+			for (int c = 0; c < chunkCount; c++) {
+				chunks[c] = new Chunk(c * size / chunkCount, (c + 1) * size
+						/ chunkCount);
+				chunks[c].labelling = true;
+				pool.execute(chunks[c]);
+			}
+			for (Chunk chunk : chunks) {
+				chunk.join();
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		if (observer != null) {
+			observer.onChange();
+			observer.onComplete();
+		}
+	}
+
+	/*
+	 * Medias por k-means++, la varianza de la muestra en cada componente y
+	 * pesos iguales.
+	 */
+	private void initialize(Random r) {
+		means = Seeding.kMeansPlusPlus(sample, depth, clustersCount, r);
+		variances = new double[clustersCount * depth];
+		constants = new double[clustersCount];
+
+		for (int k = 0; k < depth; k++) {
+			double sum = 0, squares = 0;
+			for (int i = 0; i < sampleCount; i++) {
+				double value = sample[i * depth + k];
+				sum += value;
+				squares += value * value;
+			}
+			double mean = sum / sampleCount;
+			double variance = Math.max(MIN_VARIANCE, squares / sampleCount
+					- mean * mean);
+			for (int m = 0; m < clustersCount; m++) {
+				variances[m * depth + k] = variance;
+			}
+		}
+		for (int m = 0; m < clustersCount; m++) {
+			constants[m] = constant(m, 1.0 / clustersCount);
+		}
+	}
+
+	private double constant(int m, double weight) {
+		double c = Math.log(weight);
+		for (int k = 0; k < depth; k++) {
+			c -= 0.5 * Math.log(2 * Math.PI * variances[m * depth + k]);
+		}
+		return c;
+	}
+
+	/* Paso E en paralelo; devuelve la log-verosimilitud de la muestra */
+	private double expectation(Chunk[] chunks) {
+		for (Chunk chunk : chunks) {
+			chunk.reinitialize();
+			pool.execute(chunk);
+		}
+		double logLikelihood = 0;
+		for (Chunk chunk : chunks) {
+			chunk.join();
+			logLikelihood += chunk.logLikelihood;
+		}
+		return logLikelihood;
+	}
+
+	/* Paso M: combina los acumuladores de los bloques */
+	private void maximization(Chunk[] chunks) {
+		double[] weights = new double[clustersCount];
+		double[] sums = new double[clustersCount * depth];
+		double[] squares = new double[clustersCount * depth];
+		for (Chunk chunk : chunks) {
+			for (int m = 0; m < clustersCount; m++) {
+				weights[m] += chunk.weights[m];
+			}
+			for (int i = 0; i < sums.length; i++) {
+				sums[i] += chunk.sums[i];
+				squares[i] += chunk.squares[i];
+			}
+		}
+
+		for (int m = 0; m < clustersCount; m++) {
+			if (weights[m] <= 0) {
+				/* Componente vacía: se conservan sus parámetros sin peso */
+				constants[m] = Double.NEGATIVE_INFINITY;
+				continue;
+			}
+			for (int k = 0; k < depth; k++) {
+				int i = m * depth + k;
+				double mean = sums[i] / weights[m];
+				means[i] = mean;
+				variances[i] = Math.max(MIN_VARIANCE, squares[i] / weights[m]
+						- mean * mean);
+			}
+			constants[m] = constant(m, weights[m] / sampleCount);
+		}
+	}
+
+	/*
+	 * Log de la densidad conjunta de feature y cada componente, en logs.
+	 * Devuelve la componente de mayor valor.
+	 */
+	private int logDensities(int[] feature, int offset, double[] logs) {
+		int best = 0;
+		for (int m = 0; m < clustersCount; m++) {
+			double acum = constants[m];
+			for (int k = 0; k < depth; k++) {
+				double d = feature[offset + k] - means[m * depth + k];
+				acum -= 0.5 * d * d / variances[m * depth + k];
+			}
+			logs[m] = acum;
+			if (acum > logs[best]) {
+				best = m;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Bloque de puntos [start, end) procesado por un worker del pool: de la
+	 * muestra durante el entrenamiento, o de la imagen en el etiquetado.
+	 */
+	class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int start;
+		private int end;
+		private boolean labelling;
+
+		private double logLikelihood;
+		private double[] weights = new double[clustersCount];
+		private double[] sums = new double[clustersCount * depth];
+		private double[] squares = new double[clustersCount * depth];
+		private double[] logs = new double[clustersCount];
+
+		public Chunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (labelling) {
+				int[] feature = new int[depth];
+				for (int p = start; p < end; p++) {
+					image.getFeature(p, feature);
+					image.setLabel(p, logDensities(feature, 0, logs));
+				}
+				return;
+			}
+
+			logLikelihood = 0;
+			Arrays.fill(weights, 0);
+			Arrays.fill(sums, 0);
+			Arrays.fill(squares, 0);
+			for (int i = start; i < end; i++) {
+				int offset = i * depth;
+				double max = logs[logDensities(sample, offset, logs)];
+
+				/* log-sum-exp */
+				double total = 0;
+				for (int m = 0; m < clustersCount; m++) {
+					logs[m] = Math.exp(logs[m] - max);
+					total += logs[m];
+				}
+				logLikelihood += max + Math.log(total);
+
+				for (int m = 0; m < clustersCount; m++) {
+					double responsibility = logs[m] / total;
+					if (responsibility == 0) {
+						continue;
+					}
+					weights[m] += responsibility;
+					for (int k = 0; k < depth; k++) {
+						double value = sample[offset + k];
+						sums[m * depth + k] += responsibility * value;
+						squares[m * depth + k] += responsibility * value * value;
+					}
+				}
+			}
+		}
+	}
+}
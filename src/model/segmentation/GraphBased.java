@@ -0,0 +1,204 @@
+package model.segmentation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import model.FeatureMatrix;
+import model.SegmentationObserver;
+
+/**
+ * Segmentación sobre el grafo de pixels de Felzenszwalb y Huttenlocher.
+ *
+ * Cada pixel se une con sus 4 vecinos, u 8 con "eightConnected", por aristas
+ * cuyo peso es la distancia euclídea entre sus features. Las aristas se recorren de
+ * menor a mayor peso y dos componentes se unen si el peso no supera la
+ * diferencia interna de ninguna de ellas, Int(C) + k / |C|, donde Int(C) es el
+ * peso de la arista más pesada que las formó y k es el parámetro "scale".
+ * Luego las componentes de menos de "minSize" pixels se unen a su vecina por
+ * la arista más liviana.
+ *
+ * Las aristas se codifican como pixel * direcciones + dirección y se ordenan
+ * con un radix sort sobre los bits del peso en float, así que la memoria es
+ * un número fijo de enteros por pixel y el tiempo es casi lineal.
+ */
+public class GraphBased extends SegmentationAlgorithm {
+
+	/* Desplazamientos (columna, fila) de las direcciones: este, sur, sureste, suroeste */
+	private static final int[] DX = { 1, 0, 1, -1 };
+	private static final int[] DY = { 0, 1, 1, 1 };
+
+	private FeatureMatrix image;
+	private SegmentationObserver observer;
+
+	private double scale = 300;
+	private int minSize = 20;
+	private boolean eightConnected = true;
+
+	private int width;
+	private int height;
+	private int directions;
+
+	public void process(FeatureMatrix image, SegmentationObserver observer,
+			HashMap<String, String> params) {
+		this.image = image;
+		this.observer = observer;
+
+		String s;
+		s = params.get("scale");
+		if (s != null) {
+			scale = new Double(s);
+		}
+		s = params.get("minSize");
+		if (s != null) {
+			minSize = new Integer(s);
+		}
+		s = params.get("eightConnected");
+		if (s != null) {
+			eightConnected = new Integer(s) != 0;
+		}
+	}
+
+	public void run() {
+		width = image.getWidth();
+		height = image.getHeight();
+		directions = eightConnected ? 4 : 2;
+
+		/* EDGES */
+		int size = image.getSize();
+		int edgeCount = 0;
+		int[] edges = new int[size * directions];
+		int[] weights = new int[edges.length];
+		int[] a = new int[image.getDepth()];
+		int[] b = new int[image.getDepth()];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int p = image.pixel(y, x);
+				image.getFeature(p, a);
+				for (int d = 0; d < directions; d++) {
+					int nx = x + DX[d];
+					int ny = y + DY[d];
+					if (nx < 0 || nx >= width || ny >= height) {
+						continue;
+					}
+					image.getFeature(ny, nx, b);
+					long acum = 0;
+					for (int k = 0; k < a.length; k++) {
+						long diff = a[k] - b[k];
+						acum += diff * diff;
+					}
+					edges[edgeCount] = p * directions + d;
+					/*
+					 * Los bits de un float no negativo ordenados como enteros
+					 * respetan el orden de los floats.
+					 */
+					weights[edgeCount] = Float.floatToIntBits((float) Math
+							.sqrt(acum));
+					edgeCount++;
+				}
+			}
+		}
+		if (isInterrupted()) {
+			return;
+		}
+		sort(edges, weights, edgeCount);
+		if (isInterrupted()) {
+			return;
+		}
+
+		/* MERGE */
+		UnionFind components = new UnionFind(size);
+		int[] sizes = new int[size];
+		float[] thresholds = new float[size];
+		for (int p = 0; p < size; p++) {
+			sizes[p] = 1;
+			thresholds[p] = (float) scale;
+		}
+		for (int e = 0; e < edgeCount; e++) {
+			int from = components.find(source(edges[e]));
+			int to = components.find(target(edges[e]));
+			if (from == to) {
+				continue;
+			}
+			float weight = Float.intBitsToFloat(weights[e]);
+			if (weight <= thresholds[from] && weight <= thresholds[to]) {
+				int root = components.union(from, to);
+				sizes[root] = sizes[from] + sizes[to];
+				thresholds[root] = weight + (float) (scale / sizes[root]);
+			}
+		}
+
+		/* Componentes chicas */
+		for (int e = 0; e < edgeCount; e++) {
+			int from = components.find(source(edges[e]));
+			int to = components.find(target(edges[e]));
+			if (from != to && (sizes[from] < minSize || sizes[to] < minSize)) {
+				int root = components.union(from, to);
+				sizes[root] = sizes[from] + sizes[to];
+			}
+		}
+
+		/* Se numeran las componentes en el orden en que aparecen */
+		int[] labels = sizes;
+		for (int p = 0; p < size; p++) {
+			labels[p] = -1;
+		}
+		int segmentCount = 0;
+		for (int p = 0; p < size; p++) {
+			int root = components.find(p);
+			if (labels[root] < 0) {
+				labels[root] = segmentCount++;
+			}
+			image.setLabel(p, labels[root]);
+		}
+
+		if (observer != null) {
+			observer.onChange();
+			observer.onComplete();
+		}
+	}
+
+	private int source(int edge) {
+		return edge / directions;
+	}
+
+	private int target(int edge) {
+		int p = edge / directions;
+		int d = edge % directions;
+		return p + DY[d] * width + DX[d];
+	}
+
+	/*
+	 * Radix sort estable de los primeros count elementos de edges por
+	 * weights, de a 8 bits. Los pesos son no negativos, así que alcanza con
+	 * ordenarlos como enteros sin signo.
+	 */
+	private static void sort(int[] edges, int[] weights, int count) {
+		if (count == 0) {
+			return;
+		}
+		int[] auxEdges = new int[count];
+		int[] auxWeights = new int[count];
+		int[] histogram = new int[257];
+
+		for (int shift = 0; shift < 32; shift += 8) {
+			Arrays.fill(histogram, 0);
+			for (int i = 0; i < count; i++) {
+				histogram[((weights[i] >>> shift) & 0xFF) + 1]++;
+			}
+			if (histogram[((weights[0] >>> shift) & 0xFF) + 1] == count) {
+				continue; /* todos tienen el mismo byte */
+			}
+			for (int i = 0; i < 256; i++) {
+				histogram[i + 1] += histogram[i];
+			}
+			for (int i = 0; i < count; i++) {
+				int bucket = (weights[i] >>> shift) & 0xFF;
+				int position = histogram[bucket]++;
+				auxEdges[position] = edges[i];
+				auxWeights[position] = weights[i];
+			}
+			System.arraycopy(auxEdges, 0, edges, 0, count);
+			System.arraycopy(auxWeights, 0, weights, 0, count);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package model.segmentation;
+
+/**
+ * Heap binario de mínimos sobre los enteros [0, capacity), donde cada elemento
+ * tiene una clave que se puede cambiar o quitar en tiempo logarítmico. A
+ * igual clave sale primero el elemento menor, de modo que el orden no depende
+ * del orden de inserción.
+ */
+class IndexedMinHeap {
+
+	private int size;
+	private int[] heap; /* elementos en orden de heap */
+	private int[] position; /* posición de cada elemento en heap, o -1 */
+	private double[] keys;
+
+	public IndexedMinHeap(int capacity) {
+		this.heap = new int[capacity];
+		this.position = new int[capacity];
+		this.keys = new double[capacity];
+		for (int i = 0; i < capacity; i++) {
+			position[i] = -1;
+		}
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Inserta el elemento o cambia su clave si ya estaba en el heap.
+	 */
+	public void put(int element, double key) {
+		if (position[element] < 0) {
+			keys[element] = key;
+			heap[size] = element;
+			position[element] = size;
+			up(size++);
+		} else {
+			double old = keys[element];
+			keys[element] = key;
+			if (key < old) {
+				up(position[element]);
+			} else {
+				down(position[element]);
+			}
+		}
+	}
+
+	public int poll() {
+		int element = heap[0];
+		remove(element);
+		return element;
+	}
+
+	public void remove(int element) {
+		int index = position[element];
+		if (index < 0) {
+			return;
+		}
+		size--;
+		position[element] = -1;
+		if (index == size) {
+			return;
+		}
+		int last = heap[size];
+		heap[index] = last;
+		position[last] = index;
+		up(index);
+		down(position[last]);
+	}
+
+	private boolean less(int a, int b) {
+		return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+	}
+
+	private void up(int index) {
+		int element = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (!less(element, heap[parent])) {
+				break;
+			}
+			heap[index] = heap[parent];
+			position[heap[index]] = index;
+			index = parent;
+		}
+		heap[index] = element;
+		position[element] = index;
+	}
+
+	private void down(int index) {
+		int element = heap[index];
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && less(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!less(heap[child], element)) {
+				break;
+			}
+			heap[index] = heap[child];
+			position[heap[index]] = index;
+			index = child;
+		}
+		heap[index] = element;
+		position[element] = index;
+	}
+}
@@ -1,24 +1,85 @@
 package model.segmentation;
 
-import java.awt.Point;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import model.FeatureMatrix;
 import model.SegmentationObserver;
 
 /**
  * Implementación del método K-means de segmentación.
+ *
+ * Las asignaciones se leen directamente del mapa de segmentos de la
+ * FeatureMatrix y cada cluster mantiene acumuladores primitivos de suma y
+ * cantidad que se actualizan a medida que los pixels cambian de cluster, por
+ * lo que una iteración no reserva memoria.
+ *
+ * Con el parámetro "accelerated" se usan las cotas de Hamerly: por cada pixel
+ * una cota superior a la distancia a su centroide y una cota inferior a la
+ * distancia al segundo más cercano, que junto con la mitad de la distancia
+ * entre centroides permiten omitir la mayoría de los cálculos de distancia
+ * una vez que los clusters se estabilizan.
+ *
+ * Los centroides iniciales se eligen con k-means++ sobre una muestra de
+ * "sampleSize" pixels, 0 para usar toda la imagen (parámetro "init", por
+ * defecto "kmeans++"), con una paleta de las celdas de color más pobladas
+ * ("palette") o asignando cada pixel a un cluster al azar ("random"). Con el parámetro "seed" los resultados son
+ * reproducibles.
+ *
+ * Cada iteración reparte la imagen en bandas de filas sobre un ForkJoinPool
+ * de "threads" workers (por defecto, uno por procesador); cada banda acumula
+ * sus propias sumas y cantidades, que se combinan al final de la iteración.
+ *
+ * Con "batchSize" mayor a cero se usa K-means mini-batch: en cada una de a lo
+ * sumo "maxIterations" iteraciones se toma una muestra al azar de pixels y
+ * cada centroide se acerca a los pixels que le tocan con una tasa de
+ * aprendizaje de 1 / (pixels vistos por ese centroide). Al final se hace una
+ * única asignación completa de la imagen.
+ *
+ * Si la imagen tiene pocos vectores de features distintos (a lo sumo la
+ * cuarta parte de sus pixels, como suele pasar en RGB o escala de grises) se
+ * agrupan primero los vectores iguales y se clusterizan esos puntos pesados
+ * por su cantidad de pixels; las etiquetas se copian a los pixels en una sola
+ * pasada al final. Se desactiva con "uniqueFeatures" en 0.
  */
 public class KMeans extends SegmentationAlgorithm {
 
-    private Cluster[] clusters;
     private FeatureMatrix image;
     private SegmentationObserver observer;
     private boolean useAllClusters = false;
+    private boolean accelerated = false;
     private int clustersCount = 10;
+    private String init = "kmeans++";
+    private Long seed = null;
+    private int sampleSize = 10000;
+    private int batchSize = 0;
+    private int maxIterations = 100;
+    private boolean uniqueFeatures = true;
+
+    private int depth;
+    private UniqueFeatures unique; /* vectores distintos, o null si se usan los pixels */
+    private int[] uniqueLabels; /* cluster de cada vector distinto */
+    private int pointCount;
+    private double[] centroids; /* centroides, clustersCount * depth */
+    private long[] sums; /* suma de features por cluster */
+    private int[] counts; /* cantidad de pixels por cluster */
+
+    private double[] upper; /* cota superior a la distancia al centroide propio */
+    private double[] lower; /* cota inferior a la distancia al segundo centroide */
+    private double[] previous; /* centroides de la iteración anterior */
+    private double[] drift; /* desplazamiento de cada centroide */
+    private double[] halfGap; /* mitad de la distancia al centroide más cercano */
+    private double maxDrift;
+    private double secondDrift;
+    private int largestDrift;
+
+    private boolean[] clustersEmptyStatus;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool pool;
+    private Band[] bands;
 
     // @Override
     public void process(FeatureMatrix image, SegmentationObserver observer,
@@ -31,71 +92,163 @@ public class KMeans extends SegmentationAlgorithm {
             useAllClusters = (new Integer(s) == 0) ? false : true;
         }
 
+        s = params.get("accelerated");
+        if (s != null) {
+            accelerated = (new Integer(s) == 0) ? false : true;
+        }
+
         s = params.get("clustersCount");
         if (s != null) {
             clustersCount = new Integer(s);
         }
 
-        this.clusters = new Cluster[clustersCount];
+        s = params.get("init");
+        if (s != null) {
+            init = s;
+        }
+
+        s = params.get("seed");
+        if (s != null) {
+            seed = new Long(s);
+        }
+
+        s = params.get("sampleSize");
+        if (s != null) {
+            sampleSize = new Integer(s);
+        }
+
+        s = params.get("batchSize");
+        if (s != null) {
+            batchSize = new Integer(s);
+        }
+
+        s = params.get("maxIterations");
+        if (s != null) {
+            maxIterations = new Integer(s);
+        }
+
+        s = params.get("uniqueFeatures");
+        if (s != null) {
+            uniqueFeatures = (new Integer(s) == 0) ? false : true;
+        }
+
+        s = params.get("threads");
+        if (s != null) {
+            threads = Math.max(1, new Integer(s));
+        }
+
+        this.depth = image.getDepth();
+        this.centroids = new double[clustersCount * depth];
+        this.sums = new long[clustersCount * depth];
+        this.counts = new int[clustersCount];
+        this.clustersEmptyStatus = new boolean[clustersCount];
+    }
+
+    /*
+     * Arma los puntos a clusterizar: los vectores distintos si son pocos, o si
+     * no directamente los pixels de la imagen.
+     */
+    private void createPoints() {
+        if (uniqueFeatures) {
+            unique = UniqueFeatures.collect(image, image.getSize() / 4);
+        }
+        if (unique != null) {
+            pointCount = unique.size();
+            uniqueLabels = new int[pointCount];
+            Arrays.fill(uniqueLabels, -1);
+        } else {
+            pointCount = image.getSize();
+        }
+
+        if (accelerated) {
+            this.upper = new double[pointCount];
+            this.lower = new double[pointCount];
+            this.previous = new double[clustersCount * depth];
+            this.drift = new double[clustersCount];
+            this.halfGap = new double[clustersCount];
+            Arrays.fill(upper, Double.POSITIVE_INFINITY);
+        }
+    }
+
+    private int[] getFeature(int p, int[] feature) {
+        return (unique == null) ? image.getFeature(p, feature) : unique
+                .getFeature(p, feature);
+    }
+
+    private int getLabel(int p) {
+        return (unique == null) ? image.getLabel(p) : uniqueLabels[p];
+    }
+
+    private void setLabel(int p, int label) {
+        if (unique == null) {
+            image.setLabel(p, label);
+        } else {
+            uniqueLabels[p] = label;
+        }
+    }
+
+    private int getWeight(int p) {
+        return (unique == null) ? 1 : unique.weight(p);
+    }
 
+    /*
+     * Copia a cada pixel la etiqueta de su vector de features.
+     */
+    private void writeLabels() {
+        int[] feature = new int[depth];
+        for (int p = 0; p < image.getSize(); p++) {
+            image.setLabel(p, uniqueLabels[unique.find(image.getFeature(p, feature))]);
+        }
     }
 
     private void generateClusters() {
         boolean hasChanged = true;
-        boolean[] clustersEmptyStatus = new boolean[clusters.length];
+        int[] feature = new int[depth];
+        double[] nearest = new double[2];
 
 		/* Mientras no hayan cambios en los clusters */
         while (hasChanged && !isInterrupted()) {
-            for (int i = 0; i < clustersEmptyStatus.length; i++)
-                clustersEmptyStatus[i] = true;
-            //System.out.println("iterando");
+            int unclaimed = 0;
+            for (int m = 0; m < clustersCount; m++) {
+                clustersEmptyStatus[m] = counts[m] == 0;
+                if (clustersEmptyStatus[m] && useAllClusters)
+                    unclaimed++;
+            }
             hasChanged = false;
-			/* Poner cada objeto en el cluster que le quede mas cerca */
-            for (int k = 0; k < clusters.length; k++) {
-                Cluster c = clusters[k];
-                for (int i = 0; i < c.getObjects().size(); i++) {
-                    Point object = c.getObjects().get(i);
-                    int bestCluster = -1;
-
-                    double minDistance = Double.MAX_VALUE;
-
-					/*
-					 * Buscar el cluster que tiene su centroide más cerca de
-					 * este objeto
-					 */
-                    for (int m = 0; m < clusters.length; m++) {
-
-						/* Si este cluster no esta ocupado, lo meto ahi y ya */
-                        if (useAllClusters
-                                && (clusters[m].getCentroid() == null && clustersEmptyStatus[m])) {
-                            bestCluster = m;
-                            minDistance = 0;
-                            clustersEmptyStatus[m] = false;
-                            //System.out.println("clustrer vacio");
-                        } else {
-                            if (clusters[m].getCentroid() != null
-                                    && distanceBetween(KMeans.this.image
-                                            .getData()[object.y][object.x],
-                                    clusters[m].getCentroid()) < minDistance) {
-                                bestCluster = m;
-                                minDistance = distanceBetween(KMeans.this.image
-                                                .getData()[object.y][object.x],
-                                        clusters[m].getCentroid());
-                            }
-                        }
-                    }
 
-					/* De ser necesario poner el objeto en el nuevo cluster */
-                    if (bestCluster != k) {
-                        hasChanged = true;
-                        KMeans.this.image.getSegment()[object.y][object.x] = (byte) bestCluster;
-                    }
-                }
+            if (accelerated) {
+                updateHalfGaps();
+            }
 
+            /*
+             * Los primeros puntos ocupan los clusters vacios, igual que en un
+             * recorrido secuencial; el resto se reparte en bandas. Un punto
+             * que es el único de su cluster no lo deja vacío para ocupar otro.
+             */
+            int start = 0;
+            for (; unclaimed > 0 && start < pointCount; start++) {
+                boolean claim = counts[getLabel(start)] > getWeight(start);
+                hasChanged |= assign(start, feature, nearest, sums, counts, claim);
+                if (claim)
+                    unclaimed--;
             }
 
-            rebuildClusters();
+            hasChanged |= runBands(start, Band.ASSIGN);
+
+            if (accelerated) {
+                System.arraycopy(centroids, 0, previous, 0, centroids.length);
+                updateCentroids();
+                updateBounds();
+            } else {
+                updateCentroids();
+            }
 
+            if (observer != null && unique == null) {
+                observer.onChange();
+            }
+        }
+        if (unique != null) {
+            writeLabels();
             if (observer != null) {
                 observer.onChange();
             }
@@ -105,108 +258,395 @@ public class KMeans extends SegmentationAlgorithm {
         }
     }
 
-    private void rebuildClusters() {
+    /*
+     * Pone el punto p en el cluster que le quede mas cerca y registra el
+     * movimiento en los acumuladores dados. Devuelve si el punto cambió de
+     * cluster.
+     */
+    private boolean assign(int p, int[] feature, double[] nearest,
+                           long[] sums, int[] counts, boolean claim) {
+        int current = getLabel(p);
+
+        if (accelerated && !claim && current >= 0) {
+            /* Las cotas garantizan que el centroide propio es el mas cercano */
+            double z = Math.max(lower[p], halfGap[current]);
+            if (upper[p] <= z) {
+                return false;
+            }
+            getFeature(p, feature);
+            upper[p] = Math.sqrt(squaredDistance(feature, current));
+            if (upper[p] <= z) {
+                return false;
+            }
+        } else {
+            getFeature(p, feature);
+        }
 
-        this.clusters = new Cluster[this.clusters.length];
+        int bestCluster = nearestCluster(feature, current, claim, nearest);
 
-        for (int i = 0; i < clusters.length; i++) {
-            clusters[i] = new Cluster();
+        if (accelerated) {
+            if (clustersEmptyStatus[bestCluster]) {
+                upper[p] = Double.POSITIVE_INFINITY;
+                lower[p] = 0;
+            } else {
+                upper[p] = Math.sqrt(nearest[0]);
+                lower[p] = Math.sqrt(nearest[1]);
+            }
         }
 
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth(); j++) {
-                clusters[image.getSegment()[i][j]].add(new Point(j, i));
-            }
+		/* De ser necesario poner el objeto en el nuevo cluster */
+        if (bestCluster != current) {
+            move(feature, getWeight(p), current, bestCluster, sums, counts);
+            setLabel(p, bestCluster);
+            return true;
         }
+        return false;
+    }
 
-        for (int i = 0; i < clusters.length; i++) {
-            clusters[i].updateCentroid();
+    /*
+     * Ejecuta la fase dada sobre los puntos desde start en bandas, cada una
+     * con sus propios acumuladores, y los suma a los del algoritmo.
+     */
+    private boolean runBands(int start, int phase) {
+        boolean changed = false;
+
+        for (Band band : bands) {
+            band.reinitialize();
+            band.phase = phase;
+            band.from = Math.max(band.start, start);
+            pool.execute(band);
+        }
+        for (Band band : bands) {
+            band.join();
+            if (phase == Band.ASSIGN && band.changed) {
+                changed = true;
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += band.sums[i];
+                }
+                for (int m = 0; m < clustersCount; m++) {
+                    counts[m] += band.counts[m];
+                }
+            }
         }
+        return changed;
+    }
 
+    /*
+     * Busca el cluster que tiene su centroide más cerca de este objeto. Si se
+     * usan todos los clusters, el primer cluster vacio se ocupa con el objeto.
+     * En nearest quedan las distancias al cuadrado al centroide más cercano y
+     * al segundo más cercano.
+     */
+    private int nearestCluster(int[] feature, int current, boolean claim,
+                               double[] nearest) {
+        int bestCluster = -1;
+        double minDistance = Double.MAX_VALUE;
+        double secondDistance = Double.MAX_VALUE;
+
+        for (int m = 0; m < clustersCount; m++) {
+            if (clustersEmptyStatus[m]) {
+                if (claim && useAllClusters && counts[m] == 0) {
+                    return m;
+                }
+                continue;
+            }
+            double distance = squaredDistance(feature, m);
+            /* Ante un empate se conserva el cluster actual */
+            if (distance < minDistance
+                    || (distance == minDistance && m == current)) {
+                bestCluster = m;
+                secondDistance = minDistance;
+                minDistance = distance;
+            } else if (distance < secondDistance) {
+                secondDistance = distance;
+            }
+        }
+        nearest[0] = minDistance;
+        nearest[1] = secondDistance;
+        return bestCluster;
     }
 
-    private void randomInit() {
+    private void updateHalfGaps() {
+        for (int m = 0; m < clustersCount; m++) {
+            halfGap[m] = Double.POSITIVE_INFINITY;
+        }
+        for (int m = 0; m < clustersCount; m++) {
+            if (clustersEmptyStatus[m])
+                continue;
+            for (int n = m + 1; n < clustersCount; n++) {
+                if (clustersEmptyStatus[n])
+                    continue;
+                double gap = Math.sqrt(centroidDistance(centroids, m, centroids, n)) / 2;
+                halfGap[m] = Math.min(halfGap[m], gap);
+                halfGap[n] = Math.min(halfGap[n], gap);
+            }
+        }
+    }
 
-        Random r = new Random();
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth(); j++) {
-                int clusterIndex = r.nextInt(clusters.length);
-                image.getSegment()[i][j] = (byte) clusterIndex;
-                // System.out.println(clusterIndex);
+    /*
+     * Corrige las cotas de cada pixel según cuánto se movieron los centroides.
+     * Un cluster que estaba vacío y ahora tiene centroide invalida todas las
+     * cotas inferiores.
+     */
+    private void updateBounds() {
+        int largest = -1;
+        int secondLargest = -1;
+        for (int m = 0; m < clustersCount; m++) {
+            if (counts[m] == 0) {
+                drift[m] = 0;
+            } else if (clustersEmptyStatus[m]) {
+                drift[m] = Double.POSITIVE_INFINITY;
+            } else {
+                drift[m] = Math.sqrt(centroidDistance(previous, m, centroids, m));
+            }
+            if (largest < 0 || drift[m] > drift[largest]) {
+                secondLargest = largest;
+                largest = m;
+            } else if (secondLargest < 0 || drift[m] > drift[secondLargest]) {
+                secondLargest = m;
             }
         }
 
+        maxDrift = drift[largest];
+        secondDrift = secondLargest < 0 ? 0 : drift[secondLargest];
+        largestDrift = largest;
+        if (maxDrift > 0) {
+            runBands(0, Band.BOUNDS);
+        }
     }
 
-    private double distanceBetween(int[] vec1, int[] vec2) {
+    private void updateBounds(int from, int to) {
+        for (int p = from; p < to; p++) {
+            int label = getLabel(p);
+            upper[p] += drift[label];
+            lower[p] -= (label == largestDrift) ? secondDrift : maxDrift;
+        }
+    }
 
-        double dist = 0;
+    private void move(int[] feature, int weight, int from, int to,
+                      long[] sums, int[] counts) {
+        if (from >= 0) {
+            counts[from] -= weight;
+            for (int k = 0, base = from * depth; k < depth; k++) {
+                sums[base + k] -= (long) feature[k] * weight;
+            }
+        }
+        counts[to] += weight;
+        for (int k = 0, base = to * depth; k < depth; k++) {
+            sums[base + k] += (long) feature[k] * weight;
+        }
+    }
+
+    private void rebuildClusters() {
+        int[] feature = new int[depth];
 
-        for (int i = 0; i < vec1.length; i++) {
-            dist += Math.pow(vec1[i] - vec2[i], 2);
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        for (int p = 0; p < pointCount; p++) {
+            move(getFeature(p, feature), getWeight(p), -1, getLabel(p), sums,
+                    counts);
         }
 
-        return Math.sqrt(dist);
+        updateCentroids();
     }
 
-    class Cluster {
-        private List<Point> objects; /* objetos que alberga */
-        private int[] centroid; /* centroide */
+    private void updateCentroids() {
+        for (int m = 0; m < clustersCount; m++) {
+            if (counts[m] == 0) {
+                continue;
+            }
+            for (int k = 0, base = m * depth; k < depth; k++) {
+                centroids[base + k] = sums[base + k] / (double) counts[m];
+            }
+        }
+    }
 
-        public Cluster() {
-            objects = new ArrayList<Point>();
-            centroid = null;
+    private void seedCentroids(Random r) {
+        int[] sample = Seeding.sample(image, sampleSize, r);
+        if (init.equalsIgnoreCase("palette")) {
+            centroids = Seeding.palette(sample, depth, clustersCount, 8);
+        } else {
+            centroids = Seeding.kMeansPlusPlus(sample, depth, clustersCount, r);
         }
+    }
 
-        public Cluster(List<Point> objects) {
-            this.objects = objects;
-            this.centroid = euclideanMeanDistance(objects);
+    /*
+     * Primera asignación de cada punto al centroide inicial más cercano. Las
+     * bandas acumulan los movimientos desde el cluster anterior, así que se
+     * borran las etiquetas que traiga la matriz.
+     */
+    private void assignToCentroids() {
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(clustersEmptyStatus, false);
+        for (int p = 0; p < pointCount; p++) {
+            setLabel(p, -1);
         }
 
-        public void add(Point o) {
-            objects.add(o);
-			/* No se recomputa el centroide por un tema de performance */
+        runBands(0, Band.ASSIGN);
+
+        if (accelerated) {
+            System.arraycopy(centroids, 0, previous, 0, centroids.length);
+            updateCentroids();
+            updateBounds();
+        } else {
+            updateCentroids();
         }
+    }
 
-        public void updateCentroid() {
-            if (objects != null && objects.size() > 0) {
-                centroid = euclideanMeanDistance(objects);
-            } else {
-                centroid = null;
+    /*
+     * K-means mini-batch: primero se busca el centroide más cercano de cada
+     * pixel de la muestra y luego se acercan los centroides a sus pixels.
+     */
+    private void miniBatch(Random r) {
+        int[] batch = new int[batchSize];
+        int[] nearestClusters = new int[batchSize];
+        long[] seen = new long[clustersCount];
+        int[] feature = new int[depth];
+        double[] nearest = new double[2];
+
+        Arrays.fill(clustersEmptyStatus, false);
+        for (int iteration = 0; iteration < maxIterations && !isInterrupted(); iteration++) {
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = r.nextInt(image.getSize());
+                image.getFeature(batch[i], feature);
+                nearestClusters[i] = nearestCluster(feature, -1, false, nearest);
+            }
+
+            for (int i = 0; i < batchSize; i++) {
+                int m = nearestClusters[i];
+                image.getFeature(batch[i], feature);
+                seen[m]++;
+                double eta = 1.0 / seen[m];
+                for (int k = 0, base = m * depth; k < depth; k++) {
+                    centroids[base + k] += eta * (feature[k] - centroids[base + k]);
+                }
             }
         }
+    }
+
+    private void randomInit(Random r) {
 
-        public int[] getCentroid() {
-            return centroid;
+        for (int p = 0; p < pointCount; p++) {
+            setLabel(p, r.nextInt(clustersCount));
         }
 
-        public List<Point> getObjects() {
-            return objects;
+    }
+
+    private double squaredDistance(int[] feature, int cluster) {
+
+        double dist = 0;
+
+        for (int k = 0, base = cluster * depth; k < depth; k++) {
+            double d = feature[k] - centroids[base + k];
+            dist += d * d;
         }
 
-        public int[] euclideanMeanDistance(List<Point> points) {
+        return dist;
+    }
+
+    private double centroidDistance(double[] a, int m, double[] b, int n) {
+
+        double dist = 0;
+
+        for (int k = 0; k < depth; k++) {
+            double d = a[m * depth + k] - b[n * depth + k];
+            dist += d * d;
+        }
 
-            int[] info = new int[KMeans.this.image.getDepth()];
-            int[] output = new int[info.length];
+        return dist;
+    }
 
-            for (Point p : points) {
-                int[] data = KMeans.this.image.getData()[p.y][p.x];
-                for (int i = 0; i < data.length; i++) {
-                    info[i] += data[i];
+    public void run() {
+        createPoints();
+
+        /* Con pixels, las bandas son de filas completas */
+        int rowLength = (unique == null) ? image.getWidth() : 1;
+        int rowCount = pointCount / rowLength;
+        pool = new ForkJoinPool(threads);
+        bands = new Band[threads == 1 ? 1 : threads * 4];
+        int rows = (rowCount + bands.length - 1) / bands.length;
+        for (int b = 0; b < bands.length; b++) {
+            bands[b] = new Band(Math.min(b * rows, rowCount) * rowLength,
+                    Math.min((b + 1) * rows, rowCount) * rowLength);
+        }
+
+        try {
+            Random r = (seed == null) ? new Random() : new Random(seed);
+            if (batchSize > 0) {
+                if (init.equalsIgnoreCase("random")) {
+                    int[] sample = Seeding.sample(image, clustersCount, r);
+                    for (int i = 0; i < centroids.length; i++) {
+                        centroids[i] = sample[i % sample.length];
+                    }
+                } else {
+                    seedCentroids(r);
+                }
+                miniBatch(r);
+                if (isInterrupted()) {
+                    return;
+                }
+                assignToCentroids();
+                if (unique != null) {
+                    writeLabels();
                 }
+                if (observer != null) {
+                    observer.onChange();
+                    observer.onComplete();
+                }
+                return;
             }
-
-            for (int i = 0; i < info.length; i++) {
-                output[i] = (info[i] / points.size());
+            if (init.equalsIgnoreCase("random")) {
+                randomInit(r);
+                rebuildClusters();
+            } else {
+                seedCentroids(r);
+                assignToCentroids();
             }
-
-            return output;
+            generateClusters();
+        } finally {
+            pool.shutdown();
         }
     }
 
-    public void run() {
-        randomInit();
-        rebuildClusters();
-        generateClusters();
+    /*
+     * Banda de puntos [start, end) procesada por un worker del pool, con sus
+     * propios acumuladores parciales.
+     */
+    class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        static final int ASSIGN = 0;
+        static final int BOUNDS = 1;
+
+        private int start;
+        private int end;
+        private int from;
+        private int phase;
+        private boolean changed;
+
+        private long[] sums = new long[clustersCount * depth];
+        private int[] counts = new int[clustersCount];
+        private int[] feature = new int[depth];
+        private double[] nearest = new double[2];
+
+        public Band(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (phase == BOUNDS) {
+                updateBounds(from, end);
+                return;
+            }
+
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            changed = false;
+            for (int p = from; p < end; p++) {
+                changed |= assign(p, feature, nearest, sums, counts, false);
+            }
+        }
     }
 }
@@ -0,0 +1,136 @@
+package model.segmentation;
+
+import java.util.Arrays;
+
+/**
+ * Quadtree lineal: sólo se guardan las hojas, cada una como el código de
+ * Morton de su esquina superior izquierda y su nivel, en arreglos primitivos.
+ * La imagen se ubica en un cuadrado de lado potencia de dos; un nodo de nivel
+ * l tiene lado side >> l y se recorta a los bordes de la imagen.
+ *
+ * Si las hojas se agregan en orden Z (noroeste, noreste, suroeste, sureste)
+ * quedan ordenadas por código, y la hoja que contiene un pixel se encuentra
+ * con una búsqueda binaria sobre el código del pixel.
+ */
+class LinearQuadtree {
+
+	private int width;
+	private int height;
+	private int side;
+
+	private int size;
+	private long[] codes;
+	private byte[] levels;
+
+	public LinearQuadtree(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.side = 1;
+		while (side < width || side < height) {
+			side *= 2;
+		}
+		this.codes = new long[64];
+		this.levels = new byte[64];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getSide() {
+		return side;
+	}
+
+	public void add(long code, int level) {
+		if (size == codes.length) {
+			codes = Arrays.copyOf(codes, size * 2);
+			levels = Arrays.copyOf(levels, size * 2);
+		}
+		codes[size] = code;
+		levels[size] = (byte) level;
+		size++;
+	}
+
+	public void addAll(LinearQuadtree other) {
+		if (size + other.size > codes.length) {
+			codes = Arrays.copyOf(codes, Math.max(size + other.size, size * 2));
+			levels = Arrays.copyOf(levels, codes.length);
+		}
+		System.arraycopy(other.codes, 0, codes, size, other.size);
+		System.arraycopy(other.levels, 0, levels, size, other.size);
+		size += other.size;
+	}
+
+	public int xFrom(int leaf) {
+		return decode(codes[leaf]);
+	}
+
+	public int yFrom(int leaf) {
+		return decode(codes[leaf] >>> 1);
+	}
+
+	public int xTo(int leaf) {
+		return Math.min(xFrom(leaf) + (side >> levels[leaf]), width);
+	}
+
+	public int yTo(int leaf) {
+		return Math.min(yFrom(leaf) + (side >> levels[leaf]), height);
+	}
+
+	public int area(int leaf) {
+		return (xTo(leaf) - xFrom(leaf)) * (yTo(leaf) - yFrom(leaf));
+	}
+
+	/**
+	 * Devuelve la hoja que contiene el pixel (x, y).
+	 */
+	public int locate(int x, int y) {
+		long code = encode(x, y);
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (codes[middle] <= code) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Código del hijo quadrant (0 noroeste, 1 noreste, 2 suroeste, 3 sureste)
+	 * de un nodo del nivel dado.
+	 */
+	public long child(long code, int level, int quadrant) {
+		long half = side >> (level + 1);
+		return code + quadrant * half * half;
+	}
+
+	public static long encode(int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	/* Intercala ceros entre los 32 bits de value */
+	private static long spread(long value) {
+		value &= 0xFFFFFFFFL;
+		value = (value | (value << 16)) & 0x0000FFFF0000FFFFL;
+		value = (value | (value << 8)) & 0x00FF00FF00FF00FFL;
+		value = (value | (value << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		value = (value | (value << 2)) & 0x3333333333333333L;
+		value = (value | (value << 1)) & 0x5555555555555555L;
+		return value;
+	}
+
+	/* Junta los bits pares de code */
+	private static int decode(long code) {
+		code &= 0x5555555555555555L;
+		code = (code | (code >>> 1)) & 0x3333333333333333L;
+		code = (code | (code >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+		code = (code | (code >>> 4)) & 0x00FF00FF00FF00FFL;
+		code = (code | (code >>> 8)) & 0x0000FFFF0000FFFFL;
+		code = (code | (code >>> 16)) & 0x00000000FFFFFFFFL;
+		return (int) code;
+	}
+}
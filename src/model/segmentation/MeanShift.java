@@ -0,0 +1,314 @@
+package model.segmentation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.FeatureMatrix;
+import model.SegmentationObserver;
+
+/**
+ * Segmentación por mean-shift en el espacio conjunto de posición y features,
+ * con núcleo plano: un punto está en la ventana de un modo si
+ *
+ * (dx^2 + dy^2) / hs^2 + |df|^2 / hr^2 <= 1
+ *
+ * donde hs es "spatialRadius" y hr es "rangeRadius".
+ *
+ * En lugar de hacer converger cada pixel, los pixels se agrupan en bins de
+ * hs x hs pixels y features cuantizadas de a hr, y cada bin aporta una semilla
+ * en el promedio de sus pixels. La grilla de la imagen sirve de índice
+ * espacial: la ventana de una semilla sólo recorre los pixels a distancia hs,
+ * así que una iteración cuesta O(hs^2) y no O(n). Las semillas convergen en
+ * paralelo sobre un ForkJoinPool de "threads" workers.
+ *
+ * Los modos de bins adyacentes cuyas features están a menos de media ventana
+ * se unen en un mismo segmento, y cada pixel toma el segmento del modo de su
+ * bin.
+ */
+public class MeanShift extends SegmentationAlgorithm {
+
+	private static final double CONVERGENCE = 1e-3;
+
+	private FeatureMatrix image;
+	private SegmentationObserver observer;
+
+	private int spatialRadius = 8;
+	private double rangeRadius = 16;
+	private int maxIterations = 20;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private int width;
+	private int height;
+	private int depth;
+
+	/* Semillas (luego modos) como x, y y las features, de a depth + 2 */
+	private int seedCount;
+	private double[] seeds;
+	private int[] pixelSeeds;
+
+	public void process(FeatureMatrix image, SegmentationObserver observer,
+			HashMap<String, String> params) {
+		this.image = image;
+		this.observer = observer;
+
+		String s;
+		s = params.get("spatialRadius");
+		if (s != null) {
+			spatialRadius = Math.max(1, new Integer(s));
+		}
+		s = params.get("rangeRadius");
+		if (s != null) {
+			rangeRadius = new Double(s);
+		}
+		s = params.get("maxIterations");
+		if (s != null) {
+			maxIterations = new Integer(s);
+		}
+		s = params.get("threads");
+		if (s != null) {
+			threads = Math.max(1, new Integer(s));
+		}
+	}
+
+	public void run() {
+		width = image.getWidth();
+		height = image.getHeight();
+		depth = image.getDepth();
+
+		seed();
+		if (isInterrupted()) {
+			return;
+		}
+
+		/* SHIFT */
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			int chunks = (threads == 1) ? 1 : threads * 4;
+			Shift[] shifts = new Shift[chunks];
+			for (int c = 0; c < chunks; c++) {
+				shifts[c] = new Shift(c * seedCount / chunks, (c + 1)
+						* seedCount / chunks);
+				pool.execute(shifts[c]);
+			}
+			for (Shift shift : shifts) {
+				shift.join();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		if (isInterrupted()) {
+			return;
+		}
+
+		/* MERGE */
+		UnionFind modes = mergeModes();
+		int[] labels = new int[seedCount];
+		Arrays.fill(labels, -1);
+		int segmentCount = 0;
+		for (int p = 0; p < image.getSize(); p++) {
+			int root = modes.find(pixelSeeds[p]);
+			if (labels[root] < 0) {
+				labels[root] = segmentCount++;
+			}
+			image.setLabel(p, labels[root]);
+		}
+
+		if (observer != null) {
+			observer.onChange();
+			observer.onComplete();
+		}
+	}
+
+	/*
+	 * Agrupa los pixels en bins. Dentro de cada celda de hs x hs los bins se
+	 * distinguen por las features cuantizadas, comparándolas contra los bins
+	 * ya creados en la celda, que son pocos.
+	 */
+	private void seed() {
+		pixelSeeds = new int[image.getSize()];
+		seeds = new double[64 * (depth + 2)];
+		seedCount = 0;
+
+		int[] counts = new int[64];
+		int[] keys = new int[64 * depth];
+		int[] feature = new int[depth];
+		int[] key = new int[depth];
+
+		for (int cellY = 0; cellY < height; cellY += spatialRadius) {
+			for (int cellX = 0; cellX < width; cellX += spatialRadius) {
+				int first = seedCount;
+				for (int y = cellY; y < Math.min(cellY + spatialRadius, height); y++) {
+					for (int x = cellX; x < Math.min(cellX + spatialRadius, width); x++) {
+						int p = image.pixel(y, x);
+						image.getFeature(p, feature);
+						for (int k = 0; k < depth; k++) {
+							key[k] = (int) Math.floor(feature[k] / rangeRadius);
+						}
+
+						int bin = first;
+						while (bin < seedCount
+								&& !equals(keys, bin * depth, key)) {
+							bin++;
+						}
+						if (bin == seedCount) {
+							if (seedCount == counts.length) {
+								counts = Arrays.copyOf(counts, seedCount * 2);
+								keys = Arrays.copyOf(keys, seedCount * 2 * depth);
+								seeds = Arrays.copyOf(seeds, seedCount * 2
+										* (depth + 2));
+							}
+							System.arraycopy(key, 0, keys, bin * depth, depth);
+							seedCount++;
+						}
+
+						pixelSeeds[p] = bin;
+						counts[bin]++;
+						int base = bin * (depth + 2);
+						seeds[base] += x;
+						seeds[base + 1] += y;
+						for (int k = 0; k < depth; k++) {
+							seeds[base + 2 + k] += feature[k];
+						}
+					}
+				}
+			}
+		}
+
+		for (int s = 0; s < seedCount; s++) {
+			for (int i = 0; i < depth + 2; i++) {
+				seeds[s * (depth + 2) + i] /= counts[s];
+			}
+		}
+	}
+
+	private static boolean equals(int[] keys, int offset, int[] key) {
+		for (int k = 0; k < key.length; k++) {
+			if (keys[offset + k] != key[k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Mueve la semilla dada al promedio de los pixels de su ventana hasta que
+	 * se desplaza menos que CONVERGENCE o se agotan las iteraciones.
+	 */
+	private void shift(int seed, double[] mean, int[] feature) {
+		int base = seed * (depth + 2);
+		double hs2 = (double) spatialRadius * spatialRadius;
+		double hr2 = rangeRadius * rangeRadius;
+
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			double mx = seeds[base];
+			double my = seeds[base + 1];
+			Arrays.fill(mean, 0);
+			int count = 0;
+
+			int yFrom = Math.max(0, (int) Math.ceil(my - spatialRadius));
+			int yTo = Math.min(height - 1, (int) Math.floor(my + spatialRadius));
+			int xFrom = Math.max(0, (int) Math.ceil(mx - spatialRadius));
+			int xTo = Math.min(width - 1, (int) Math.floor(mx + spatialRadius));
+			for (int y = yFrom; y <= yTo; y++) {
+				for (int x = xFrom; x <= xTo; x++) {
+					double distance = ((x - mx) * (x - mx) + (y - my) * (y - my))
+							/ hs2;
+					if (distance > 1) {
+						continue;
+					}
+					image.getFeature(y, x, feature);
+					for (int k = 0; k < depth && distance <= 1; k++) {
+						double d = feature[k] - seeds[base + 2 + k];
+						distance += d * d / hr2;
+					}
+					if (distance > 1) {
+						continue;
+					}
+					mean[0] += x;
+					mean[1] += y;
+					for (int k = 0; k < depth; k++) {
+						mean[2 + k] += feature[k];
+					}
+					count++;
+				}
+			}
+			if (count == 0) {
+				return;
+			}
+
+			double movement = 0;
+			for (int i = 0; i < depth + 2; i++) {
+				double value = mean[i] / count;
+				double d = value - seeds[base + i];
+				movement += d * d / (i < 2 ? hs2 : hr2);
+				seeds[base + i] = value;
+			}
+			if (movement < CONVERGENCE * CONVERGENCE) {
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Une los modos de bins vecinos en la imagen cuyas features están a menos
+	 * de media ventana, como en la segmentación de Comaniciu y Meer: en una
+	 * zona uniforme los modos casi no se mueven, pero quedan unidos por
+	 * pixels adyacentes.
+	 */
+	private UnionFind mergeModes() {
+		UnionFind modes = new UnionFind(seedCount);
+		double limit = rangeRadius * rangeRadius / 4;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int s = pixelSeeds[image.pixel(y, x)];
+				if (x + 1 < width) {
+					join(modes, s, pixelSeeds[image.pixel(y, x + 1)], limit);
+				}
+				if (y + 1 < height) {
+					join(modes, s, pixelSeeds[image.pixel(y + 1, x)], limit);
+				}
+			}
+		}
+		return modes;
+	}
+
+	private void join(UnionFind modes, int s, int t, double limit) {
+		if (s == t || modes.find(s) == modes.find(t)) {
+			return;
+		}
+		double distance = 0;
+		for (int k = 0; k < depth && distance < limit; k++) {
+			double d = seeds[s * (depth + 2) + 2 + k]
+					- seeds[t * (depth + 2) + 2 + k];
+			distance += d * d;
+		}
+		if (distance < limit) {
+			modes.union(s, t);
+		}
+	}
+
+	/**
+	 * Rango de semillas [start, end) que converge en un worker del pool.
+	 */
+	class Shift extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int start;
+		private int end;
+
+		public Shift(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			double[] mean = new double[depth + 2];
+			int[] feature = new int[depth];
+			for (int s = start; s < end && !MeanShift.this.isInterrupted(); s++) {
+				shift(s, mean, feature);
+			}
+		}
+	}
+}
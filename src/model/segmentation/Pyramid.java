@@ -0,0 +1,232 @@
+package model.segmentation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import model.FeatureMatrix;
+import model.SegmentationObserver;
+
+/**
+ * Segmentación de grueso a fino alrededor de cualquier otro algoritmo.
+ *
+ * Se arma una pirámide de "pyramidLevels" niveles promediando las features de
+ * bloques de 2x2 pixels, el algoritmo interno segmenta el nivel más chico y
+ * los segmentos se proyectan nivel por nivel hacia la imagen original. En cada
+ * nivel sólo se vuelven a decidir los pixels cerca de un borde, es decir con
+ * algún segmento distinto en su vecindad de 3x3: cada uno toma, entre los
+ * segmentos de su vecindad, el de media de features más cercana a la suya. La
+ * pasada se repite "refinements" veces por nivel.
+ *
+ * Con dos niveles el algoritmo interno corre sobre una imagen 16 veces más
+ * chica y el trabajo a resolución completa se reduce a refinar los bordes.
+ */
+public class Pyramid extends SegmentationAlgorithm {
+
+	private SegmentationAlgorithm algorithm;
+
+	private FeatureMatrix image;
+	private SegmentationObserver observer;
+	private HashMap<String, String> params;
+
+	private int levels = 2;
+	private int refinements = 2;
+
+	public Pyramid(SegmentationAlgorithm algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public void process(FeatureMatrix image, SegmentationObserver observer,
+			HashMap<String, String> params) {
+		this.image = image;
+		this.observer = observer;
+		this.params = params;
+
+		String s;
+		s = params.get("pyramidLevels");
+		if (s != null) {
+			levels = Math.max(0, new Integer(s));
+		}
+		s = params.get("refinements");
+		if (s != null) {
+			refinements = Math.max(0, new Integer(s));
+		}
+	}
+
+	/**
+	 * Interrumpe también al algoritmo interno.
+	 */
+	public void interrupt() {
+		super.interrupt();
+		algorithm.interrupt();
+	}
+
+	public void run() {
+		FeatureMatrix[] pyramid = new FeatureMatrix[levels + 1];
+		pyramid[0] = image;
+		for (int l = 1; l <= levels; l++) {
+			if (pyramid[l - 1].getWidth() == 1 && pyramid[l - 1].getHeight() == 1) {
+				pyramid = Arrays.copyOf(pyramid, l);
+				break;
+			}
+			pyramid[l] = reduce(pyramid[l - 1]);
+		}
+		int coarsest = pyramid.length - 1;
+
+		algorithm.process(pyramid[coarsest], new SegmentationObserver() {
+
+			public void onChange() {
+			}
+
+			public void onComplete() {
+			}
+
+		}, params);
+		algorithm.start();
+		try {
+			algorithm.join();
+		} catch (InterruptedException e) {
+			algorithm.interrupt();
+			return;
+		}
+		if (isInterrupted()) {
+			return;
+		}
+
+		for (int l = coarsest - 1; l >= 0; l--) {
+			project(pyramid[l + 1], pyramid[l]);
+			for (int r = 0; r < refinements && !isInterrupted(); r++) {
+				refine(pyramid[l]);
+			}
+			if (isInterrupted()) {
+				return;
+			}
+		}
+
+		if (observer != null) {
+			observer.onChange();
+			observer.onComplete();
+		}
+	}
+
+	/* Promedia las features de bloques de 2x2 pixels */
+	private static FeatureMatrix reduce(FeatureMatrix fine) {
+		int width = (fine.getWidth() + 1) / 2;
+		int height = (fine.getHeight() + 1) / 2;
+		int depth = fine.getDepth();
+		FeatureMatrix coarse = new FeatureMatrix(width, height, depth,
+				fine.getLayout());
+
+		for (int i = 0; i < height; i++) {
+			int iTo = Math.min(2 * i + 2, fine.getHeight());
+			for (int j = 0; j < width; j++) {
+				int jTo = Math.min(2 * j + 2, fine.getWidth());
+				int count = (iTo - 2 * i) * (jTo - 2 * j);
+				for (int k = 0; k < depth; k++) {
+					int sum = 0;
+					for (int fi = 2 * i; fi < iTo; fi++) {
+						for (int fj = 2 * j; fj < jTo; fj++) {
+							sum += fine.get(fi, fj, k);
+						}
+					}
+					coarse.set(i, j, k, (sum + count / 2) / count);
+				}
+			}
+		}
+		return coarse;
+	}
+
+	/* Cada pixel fino toma el segmento de su pixel grueso */
+	private static void project(FeatureMatrix coarse, FeatureMatrix fine) {
+		for (int i = 0; i < fine.getHeight(); i++) {
+			for (int j = 0; j < fine.getWidth(); j++) {
+				fine.setLabel(i, j, coarse.getLabel(i / 2, j / 2));
+			}
+		}
+	}
+
+	/*
+	 * Vuelve a decidir los pixels de borde con las medias de los segmentos en
+	 * este nivel. Las vecindades se leen de una copia de los segmentos, así
+	 * que el resultado no depende del orden de recorrido.
+	 */
+	private static void refine(FeatureMatrix level) {
+		int width = level.getWidth();
+		int height = level.getHeight();
+		int depth = level.getDepth();
+		int size = level.getSize();
+
+		int[] labels = new int[size];
+		int labelCount = 0;
+		for (int p = 0; p < size; p++) {
+			labels[p] = level.getLabel(p);
+			labelCount = Math.max(labelCount, labels[p] + 1);
+		}
+		if (labelCount < 2) {
+			return;
+		}
+
+		int[] counts = new int[labelCount];
+		double[] means = new double[labelCount * depth];
+		int[] feature = new int[depth];
+		for (int p = 0; p < size; p++) {
+			if (labels[p] < 0) {
+				continue;
+			}
+			level.getFeature(p, feature);
+			counts[labels[p]]++;
+			for (int k = 0; k < depth; k++) {
+				means[labels[p] * depth + k] += feature[k];
+			}
+		}
+		for (int m = 0; m < labelCount; m++) {
+			for (int k = 0; k < depth && counts[m] > 0; k++) {
+				means[m * depth + k] /= counts[m];
+			}
+		}
+
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++) {
+				int p = level.pixel(i, j);
+				int current = labels[p];
+				int best = current;
+				double bestDistance = Double.MAX_VALUE;
+				boolean boundary = false;
+				level.getFeature(p, feature);
+
+				for (int ni = Math.max(0, i - 1); ni <= Math.min(height - 1, i + 1); ni++) {
+					for (int nj = Math.max(0, j - 1); nj <= Math.min(width - 1, j + 1); nj++) {
+						int candidate = labels[level.pixel(ni, nj)];
+						if (candidate == current) {
+							continue;
+						}
+						boundary = true;
+						if (candidate < 0) {
+							continue;
+						}
+						if (bestDistance == Double.MAX_VALUE && current >= 0) {
+							bestDistance = distance(feature, means, current);
+						}
+						double distance = distance(feature, means, candidate);
+						if (distance < bestDistance) {
+							bestDistance = distance;
+							best = candidate;
+						}
+					}
+				}
+				if (boundary && best != current) {
+					level.setLabel(p, best);
+				}
+			}
+		}
+	}
+
+	private static double distance(int[] feature, double[] means, int label) {
+		int depth = feature.length;
+		double acum = 0;
+		for (int k = 0; k < depth; k++) {
+			double d = feature[k] - means[label * depth + k];
+			acum += d * d;
+		}
+		return acum;
+	}
+}
@@ -0,0 +1,185 @@
+package model.segmentation;
+
+import java.util.Arrays;
+
+/**
+ * Fusión de regiones sobre un grafo de adyacencia. Cada región guarda la
+ * cantidad de pixels y la suma y suma de cuadrados de cada feature; una arista
+ * es candidata si en todas las features la desviación de la unión de sus dos
+ * regiones no supera el umbral, y su costo es la norma de esas desviaciones.
+ *
+ * Las aristas candidatas se mantienen en un heap indexado: siempre se fusiona
+ * el par más barato de todo el grafo y sólo se recalculan las aristas de la
+ * región resultante.
+ */
+class RegionMerger {
+
+	private int depth;
+	private double threshold;
+
+	private int[] counts;
+	private long[] sums;
+	private long[] squares;
+	private UnionFind regions;
+
+	private int edgeCount;
+	private int[] edgeFrom;
+	private int[] edgeTo;
+	private boolean[] dead;
+	private int[][] adjacency; /* aristas de cada región */
+	private int[] degree;
+
+	private int round;
+	private int[] visited; /* última ronda en la que se vio cada región */
+
+	public RegionMerger(int regionCount, int depth, double threshold) {
+		this.depth = depth;
+		this.threshold = threshold;
+		this.counts = new int[regionCount];
+		this.sums = new long[regionCount * depth];
+		this.squares = new long[regionCount * depth];
+		this.regions = new UnionFind(regionCount);
+		this.edgeFrom = new int[16];
+		this.edgeTo = new int[16];
+		this.adjacency = new int[regionCount][];
+		this.degree = new int[regionCount];
+		this.visited = new int[regionCount];
+	}
+
+	public void setRegion(int region, int count) {
+		counts[region] = count;
+	}
+
+	public void setMoments(int region, int feature, long sum, long sumOfSquares) {
+		sums[region * depth + feature] = sum;
+		squares[region * depth + feature] = sumOfSquares;
+	}
+
+	/**
+	 * Agrega la arista entre dos regiones vecinas. Cada par debe agregarse una
+	 * sola vez.
+	 */
+	public void addEdge(int a, int b) {
+		if (edgeCount == edgeFrom.length) {
+			edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+			edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+		}
+		edgeFrom[edgeCount] = a;
+		edgeTo[edgeCount] = b;
+		append(a, edgeCount);
+		append(b, edgeCount);
+		edgeCount++;
+	}
+
+	public int find(int region) {
+		return regions.find(region);
+	}
+
+	/**
+	 * Fusiona regiones mientras quede alguna arista candidata. Devuelve false
+	 * si el thread fue interrumpido.
+	 */
+	public boolean merge() {
+		IndexedMinHeap heap = new IndexedMinHeap(edgeCount);
+		dead = new boolean[edgeCount];
+
+		for (int e = 0; e < edgeCount; e++) {
+			double cost = cost(edgeFrom[e], edgeTo[e]);
+			if (cost >= 0) {
+				heap.put(e, cost);
+			}
+		}
+
+		int merges = 0;
+		while (!heap.isEmpty()) {
+			if ((++merges & 0xFFF) == 0 && Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			int e = heap.poll();
+			join(edgeFrom[e], edgeTo[e], heap);
+		}
+		return true;
+	}
+
+	private void join(int a, int b, IndexedMinHeap heap) {
+		int root = regions.union(a, b);
+		int other = (root == a) ? b : a;
+
+		counts[root] += counts[other];
+		for (int k = 0; k < depth; k++) {
+			sums[root * depth + k] += sums[other * depth + k];
+			squares[root * depth + k] += squares[other * depth + k];
+		}
+		counts[other] = 0;
+
+		/*
+		 * Se juntan las aristas de ambas regiones en el arreglo de root,
+		 * descartando las que unían a las dos y las repetidas hacia un mismo
+		 * vecino. Las de root se compactan en su lugar y las de other se
+		 * agregan al final.
+		 */
+		round++;
+		int rootDegree = degree[root];
+		degree[root] = 0;
+		for (int side = 0; side < 2; side++) {
+			int region = (side == 0) ? root : other;
+			int count = (side == 0) ? rootDegree : degree[region];
+			for (int i = 0; i < count; i++) {
+				int f = adjacency[region][i];
+				if (dead[f]) {
+					continue;
+				}
+				int neighbour = (edgeFrom[f] == region) ? edgeTo[f] : edgeFrom[f];
+				if (neighbour == root || neighbour == other
+						|| visited[neighbour] == round) {
+					dead[f] = true;
+					heap.remove(f);
+					continue;
+				}
+				visited[neighbour] = round;
+				edgeFrom[f] = root;
+				edgeTo[f] = neighbour;
+				append(root, f);
+
+				double cost = cost(root, neighbour);
+				if (cost >= 0) {
+					heap.put(f, cost);
+				} else {
+					heap.remove(f);
+				}
+			}
+		}
+		adjacency[other] = null;
+		degree[other] = 0;
+	}
+
+	/*
+	 * Norma de las desviaciones de la unión de a y b, o -1 si alguna supera el
+	 * umbral.
+	 */
+	private double cost(int a, int b) {
+		double count = counts[a] + counts[b];
+		double acum = 0;
+		for (int k = 0; k < depth; k++) {
+			double mean = (sums[a * depth + k] + sums[b * depth + k]) / count;
+			double variance = (squares[a * depth + k] + squares[b * depth + k])
+					/ count - mean * mean;
+			double standardDeviation = Math.sqrt(Math.max(0, variance));
+			if (standardDeviation > threshold) {
+				return -1;
+			}
+			acum += standardDeviation * standardDeviation;
+		}
+		return Math.sqrt(acum);
+	}
+
+	private void append(int region, int edge) {
+		if (adjacency[region] == null) {
+			adjacency[region] = new int[4];
+		} else if (degree[region] == adjacency[region].length) {
+			adjacency[region] = Arrays.copyOf(adjacency[region],
+					degree[region] * 2);
+		}
+		adjacency[region][degree[region]++] = edge;
+	}
+}
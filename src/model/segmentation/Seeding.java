@@ -0,0 +1,159 @@
+package model.segmentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import model.FeatureMatrix;
+
+/**
+ * Elección de centroides iniciales a partir de una muestra de pixels. Los
+ * centroides se devuelven en un arreglo de clustersCount * depth valores.
+ */
+class Seeding {
+
+	private Seeding() {
+	}
+
+	/**
+	 * Toma sampleSize pixels al azar de la imagen y los copia en un arreglo de
+	 * sampleSize * depth valores. Con sampleSize <= 0 se toma toda la imagen.
+	 */
+	static int[] sample(FeatureMatrix image, int sampleSize, Random r) {
+		int depth = image.getDepth();
+		int size = image.getSize();
+		int[] feature = new int[depth];
+		int[] sample;
+
+		if (sampleSize <= 0 || sampleSize >= size) {
+			sample = new int[size * depth];
+			for (int p = 0; p < size; p++) {
+				System.arraycopy(image.getFeature(p, feature), 0, sample, p
+						* depth, depth);
+			}
+		} else {
+			sample = new int[sampleSize * depth];
+			for (int i = 0; i < sampleSize; i++) {
+				System.arraycopy(image.getFeature(r.nextInt(size), feature), 0,
+						sample, i * depth, depth);
+			}
+		}
+		return sample;
+	}
+
+	/**
+	 * k-means++: el primer centroide se elige al azar y cada uno de los
+	 * siguientes con probabilidad proporcional al cuadrado de su distancia al
+	 * centroide más cercano ya elegido.
+	 */
+	static double[] kMeansPlusPlus(int[] sample, int depth, int clustersCount,
+			Random r) {
+		int n = sample.length / depth;
+		double[] centroids = new double[clustersCount * depth];
+		double[] distances = new double[n];
+
+		int chosen = r.nextInt(n);
+		for (int m = 0; m < clustersCount; m++) {
+			for (int k = 0; k < depth; k++) {
+				centroids[m * depth + k] = sample[chosen * depth + k];
+			}
+			if (m == clustersCount - 1) {
+				break;
+			}
+
+			double total = 0;
+			for (int i = 0; i < n; i++) {
+				double dist = 0;
+				for (int k = 0; k < depth; k++) {
+					double d = sample[i * depth + k] - centroids[m * depth + k];
+					dist += d * d;
+				}
+				if (m == 0 || dist < distances[i]) {
+					distances[i] = dist;
+				}
+				total += distances[i];
+			}
+
+			/* Si todos los puntos coinciden con algún centroide se repite uno */
+			if (total == 0) {
+				chosen = r.nextInt(n);
+				continue;
+			}
+			double target = r.nextDouble() * total;
+			chosen = n - 1;
+			for (int i = 0; i < n; i++) {
+				target -= distances[i];
+				if (target < 0) {
+					chosen = i;
+					break;
+				}
+			}
+		}
+		return centroids;
+	}
+
+	/**
+	 * Paleta: cuantiza cada canal de la muestra en levels niveles y usa como
+	 * centroides los promedios de las celdas más pobladas. No depende del
+	 * generador salvo por la muestra.
+	 */
+	static double[] palette(int[] sample, int depth, int clustersCount,
+			int levels) {
+		int n = sample.length / depth;
+		int[] min = new int[depth];
+		int[] max = new int[depth];
+
+		for (int k = 0; k < depth; k++) {
+			min[k] = Integer.MAX_VALUE;
+			max[k] = Integer.MIN_VALUE;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < depth; k++) {
+				min[k] = Math.min(min[k], sample[i * depth + k]);
+				max[k] = Math.max(max[k], sample[i * depth + k]);
+			}
+		}
+
+		/* Las celdas se identifican por el vector de niveles completo */
+		final UniqueFeatures cells = UniqueFeatures.create(depth);
+		int[] key = new int[depth];
+		long[] sums = new long[64 * depth];
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < depth; k++) {
+				int range = max[k] - min[k] + 1;
+				key[k] = (int) ((long) (sample[i * depth + k] - min[k])
+						* levels / range);
+			}
+			int cell = cells.add(key);
+			if ((cell + 1) * depth > sums.length) {
+				sums = Arrays.copyOf(sums, sums.length * 2);
+			}
+			for (int k = 0; k < depth; k++) {
+				sums[cell * depth + k] += sample[i * depth + k];
+			}
+		}
+
+		List<Integer> sorted = new ArrayList<Integer>();
+		for (int cell = 0; cell < cells.size(); cell++) {
+			sorted.add(cell);
+		}
+		Collections.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer arg0, Integer arg1) {
+				return Integer.compare(cells.weight(arg1), cells.weight(arg0));
+			}
+		});
+
+		double[] centroids = new double[clustersCount * depth];
+		for (int m = 0; m < clustersCount; m++) {
+			int cell = sorted.get(m % sorted.size());
+			for (int k = 0; k < depth; k++) {
+				centroids[m * depth + k] = sums[cell * depth + k]
+						/ (double) cells.weight(cell);
+			}
+		}
+		return centroids;
+	}
+}
@@ -0,0 +1,347 @@
+package model.segmentation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.FeatureMatrix;
+import model.SegmentationObserver;
+
+/**
+ * Superpixels SLIC (Simple Linear Iterative Clustering).
+ *
+ * Se siembran "superpixels" centros en una grilla de paso S = sqrt(N / K),
+ * corridos al pixel de menor gradiente de su vecindad de 3x3. En cada
+ * iteración un pixel sólo se compara con los centros que lo tienen dentro de
+ * su ventana de 2S x 2S, con la distancia
+ *
+ * D = dc^2 + (compactness / S)^2 * ds^2
+ *
+ * donde dc es la distancia entre features y ds la distancia en la imagen. Así
+ * cada iteración cuesta O(N), independientemente de la cantidad de
+ * superpixels.
+ *
+ * Los centros se ubican en baldes de S x S según su posición, de modo que un
+ * pixel encuentra a sus candidatos en los nueve baldes que rodean al suyo. La
+ * imagen se reparte en bandas de filas de semillas sobre un ForkJoinPool de
+ * "threads" workers; cada banda acumula sumas parciales por centro que luego
+ * se combinan para mover los centros.
+ */
+public class Slic extends SegmentationAlgorithm {
+
+	private FeatureMatrix image;
+	private SegmentationObserver observer;
+
+	private int superpixels = 400;
+	private double compactness = 10;
+	private int maxIterations = 10;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private int width;
+	private int height;
+	private int depth;
+	private int step;
+	private double spatialWeight;
+
+	private int centreCount;
+	private double[] centreX;
+	private double[] centreY;
+	private double[] centreFeatures;
+
+	private int bucketsX;
+	private int bucketsY;
+	private int[] bucketStart;
+	private int[] bucketCentres;
+
+	private ForkJoinPool pool;
+	private Band[] bands;
+	private long[] sums;
+	private int[] counts;
+
+	public void process(FeatureMatrix image, SegmentationObserver observer,
+			HashMap<String, String> params) {
+		this.image = image;
+		this.observer = observer;
+
+		String s;
+		s = params.get("superpixels");
+		if (s != null) {
+			superpixels = Math.max(1, new Integer(s));
+		}
+		s = params.get("compactness");
+		if (s != null) {
+			compactness = new Double(s);
+		}
+		s = params.get("maxIterations");
+		if (s != null) {
+			maxIterations = new Integer(s);
+		}
+		s = params.get("threads");
+		if (s != null) {
+			threads = Math.max(1, new Integer(s));
+		}
+	}
+
+	public void run() {
+		width = image.getWidth();
+		height = image.getHeight();
+		depth = image.getDepth();
+		step = Math.max(1, (int) Math.round(Math.sqrt(image.getSize()
+				/ (double) superpixels)));
+		spatialWeight = (compactness / step) * (compactness / step);
+
+		int seedsX = Math.max(1, Math.round(width / (float) step));
+		int seedsY = Math.max(1, Math.round(height / (float) step));
+		seed(seedsX, seedsY);
+
+		/*
+		 * Una banda por worker: cada una lleva sumas parciales de todos los
+		 * centros, así que más bandas sólo agregarían memoria. Las sumas
+		 * combinadas también se reservan una sola vez.
+		 */
+		pool = new ForkJoinPool(threads);
+		int bandCount = Math.min(seedsY, threads);
+		bands = new Band[bandCount];
+		sums = new long[centreCount * (depth + 2)];
+		counts = new int[centreCount];
+		for (int b = 0; b < bandCount; b++) {
+			/* Cada banda abarca las filas de pixels de varias filas de semillas */
+			int from = b * seedsY / bandCount;
+			int to = (b + 1) * seedsY / bandCount;
+			bands[b] = new Band(from * height / seedsY, to * height / seedsY);
+		}
+
+		try {
+			boolean changed = true;
+			for (int iteration = 0; changed && iteration < maxIterations
+					&& !isInterrupted(); iteration++) {
+				fillBuckets();
+				changed = iterate();
+				if (observer != null) {
+					observer.onChange();
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		if (isInterrupted()) {
+			return;
+		}
+		if (observer != null) {
+			observer.onComplete();
+		}
+	}
+
+	/*
+	 * Siembra los centros en una grilla de seedsX x seedsY y etiqueta cada
+	 * pixel con la semilla de su celda, para que ninguno quede sin centro si
+	 * después no lo alcanza ninguna ventana.
+	 */
+	private void seed(int seedsX, int seedsY) {
+		centreCount = seedsX * seedsY;
+		centreX = new double[centreCount];
+		centreY = new double[centreCount];
+		centreFeatures = new double[centreCount * depth];
+
+		for (int j = 0; j < seedsY; j++) {
+			for (int i = 0; i < seedsX; i++) {
+				int c = j * seedsX + i;
+				int x = (int) ((i + 0.5) * width / seedsX);
+				int y = (int) ((j + 0.5) * height / seedsY);
+
+				/* Se corre la semilla al pixel de menor gradiente */
+				int bestX = x, bestY = y;
+				long bestGradient = Long.MAX_VALUE;
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						long g = gradient(x + dx, y + dy);
+						if (g < bestGradient) {
+							bestGradient = g;
+							bestX = x + dx;
+							bestY = y + dy;
+						}
+					}
+				}
+				centreX[c] = bestX;
+				centreY[c] = bestY;
+				int p = image.pixel(bestY, bestX);
+				for (int k = 0; k < depth; k++) {
+					centreFeatures[c * depth + k] = image.get(p, k);
+				}
+			}
+		}
+
+		for (int y = 0; y < height; y++) {
+			int j = y * seedsY / height;
+			for (int x = 0; x < width; x++) {
+				image.setLabel(y, x, j * seedsX + x * seedsX / width);
+			}
+		}
+	}
+
+	/* Gradiente en (x, y), o Long.MAX_VALUE en el borde de la imagen */
+	private long gradient(int x, int y) {
+		if (x < 1 || y < 1 || x >= width - 1 || y >= height - 1) {
+			return Long.MAX_VALUE;
+		}
+		long acum = 0;
+		for (int k = 0; k < depth; k++) {
+			long dx = image.get(y, x + 1, k) - image.get(y, x - 1, k);
+			long dy = image.get(y + 1, x, k) - image.get(y - 1, x, k);
+			acum += dx * dx + dy * dy;
+		}
+		return acum;
+	}
+
+	/* Reparte los centros en baldes de step x step según su posición */
+	private void fillBuckets() {
+		bucketsX = (width + step - 1) / step;
+		bucketsY = (height + step - 1) / step;
+		if (bucketStart == null) {
+			bucketStart = new int[bucketsX * bucketsY + 1];
+			bucketCentres = new int[centreCount];
+		}
+		Arrays.fill(bucketStart, 0);
+		for (int c = 0; c < centreCount; c++) {
+			bucketStart[bucket(c) + 1]++;
+		}
+		for (int b = 0; b < bucketsX * bucketsY; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		int[] next = Arrays.copyOf(bucketStart, bucketsX * bucketsY);
+		for (int c = 0; c < centreCount; c++) {
+			bucketCentres[next[bucket(c)]++] = c;
+		}
+	}
+
+	private int bucket(int c) {
+		int i = Math.min((int) centreX[c] / step, bucketsX - 1);
+		int j = Math.min((int) centreY[c] / step, bucketsY - 1);
+		return j * bucketsX + i;
+	}
+
+	/*
+	 * Asigna los pixels en paralelo y mueve cada centro al promedio de sus
+	 * pixels. Devuelve true si algún pixel cambió de centro.
+	 */
+	private boolean iterate() {
+		for (Band band : bands) {
+			band.reinitialize();
+			pool.execute(band);
+		}
+		Arrays.fill(sums, 0);
+		Arrays.fill(counts, 0);
+		boolean changed = false;
+		for (Band band : bands) {
+			band.join();
+			changed |= band.changed;
+			for (int i = 0; i < sums.length; i++) {
+				sums[i] += band.sums[i];
+			}
+			for (int c = 0; c < centreCount; c++) {
+				counts[c] += band.counts[c];
+			}
+		}
+
+		for (int c = 0; c < centreCount; c++) {
+			if (counts[c] == 0) {
+				continue;
+			}
+			int base = c * (depth + 2);
+			centreX[c] = sums[base] / (double) counts[c];
+			centreY[c] = sums[base + 1] / (double) counts[c];
+			for (int k = 0; k < depth; k++) {
+				centreFeatures[c * depth + k] = sums[base + 2 + k]
+						/ (double) counts[c];
+			}
+		}
+		return changed;
+	}
+
+	/*
+	 * Asigna el pixel (x, y) al centro más cercano entre los que lo tienen en
+	 * su ventana; si ninguno lo alcanza conserva su centro. Acumula la posición
+	 * y las features del pixel en el centro elegido.
+	 */
+	private boolean assign(int x, int y, int[] feature, long[] sums,
+			int[] counts) {
+		int p = image.pixel(y, x);
+		image.getFeature(p, feature);
+		int current = image.getLabel(p);
+		int best = current;
+		double bestDistance = Double.MAX_VALUE;
+
+		int i = Math.min(x / step, bucketsX - 1);
+		int j = Math.min(y / step, bucketsY - 1);
+		for (int bj = Math.max(0, j - 1); bj <= Math.min(bucketsY - 1, j + 1); bj++) {
+			for (int bi = Math.max(0, i - 1); bi <= Math.min(bucketsX - 1, i + 1); bi++) {
+				int b = bj * bucketsX + bi;
+				for (int n = bucketStart[b]; n < bucketStart[b + 1]; n++) {
+					int c = bucketCentres[n];
+					double dx = x - centreX[c];
+					double dy = y - centreY[c];
+					if (Math.abs(dx) > step || Math.abs(dy) > step) {
+						continue;
+					}
+					double distance = spatialWeight * (dx * dx + dy * dy);
+					for (int k = 0; k < depth && distance <= bestDistance; k++) {
+						double d = feature[k] - centreFeatures[c * depth + k];
+						distance += d * d;
+					}
+					/* A igual distancia se conserva el centro actual */
+					if (distance < bestDistance
+							|| (distance == bestDistance && c == current)) {
+						bestDistance = distance;
+						best = c;
+					}
+				}
+			}
+		}
+
+		int base = best * (depth + 2);
+		sums[base] += x;
+		sums[base + 1] += y;
+		for (int k = 0; k < depth; k++) {
+			sums[base + 2 + k] += feature[k];
+		}
+		counts[best]++;
+		if (best != current) {
+			image.setLabel(p, best);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Banda de filas [start, end) procesada por un worker del pool, con sus
+	 * propias sumas parciales por centro.
+	 */
+	class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int start;
+		private int end;
+		private boolean changed;
+
+		private long[] sums = new long[centreCount * (depth + 2)];
+		private int[] counts = new int[centreCount];
+		private int[] feature = new int[depth];
+
+		public Band(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			changed = false;
+			for (int y = start; y < end; y++) {
+				for (int x = 0; x < width; x++) {
+					changed |= assign(x, y, feature, sums, counts);
+				}
+			}
+		}
+	}
+}
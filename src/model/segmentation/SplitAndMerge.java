@@ -1,12 +1,8 @@
 package model.segmentation;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import model.FeatureMatrix;
 import model.SegmentationObserver;
@@ -14,10 +10,13 @@ public class SplitAndMerge extends SegmentationAlgorithm {
 
 	private FeatureMatrix image;
 	private SegmentationObserver observer;
+	private SummedAreaTable table;
+	private LinearQuadtree tree;
 
 	private double splitStandardDeviation = 5;
 	private double mergeStandardDeviation = 5;
 	private int minSize = 3;
+	private int threads = Runtime.getRuntime().availableProcessors();
 
 	public void process(FeatureMatrix image, SegmentationObserver observer,
 			HashMap<String, String> params) {
@@ -28,433 +27,202 @@ public class SplitAndMerge extends SegmentationAlgorithm {
 		Integer auxInteger;
 		String s;
 		s = params.get("splitStandardDeviation");
-		System.out.println(s);
 		if (s != null && (auxDouble = Double.parseDouble(s)) != null) {
 			splitStandardDeviation = auxDouble;
 		}
 		s = params.get("mergeStandardDeviation");
-		System.out.println(s);
 		if (s != null && (auxDouble = Double.parseDouble(s)) != null) {
 			mergeStandardDeviation = auxDouble;
 		}
 		s = params.get("minSize");
-		System.out.println(s);
 		if (s != null && (auxInteger = Integer.parseInt(s)) != null) {
 			minSize = auxInteger;
 		}
-
-		System.out.println("Split and merge "
-				+ splitStandardDeviation + " " + mergeStandardDeviation + " "
-				+ minSize);
+		s = params.get("threads");
+		if (s != null) {
+			threads = Math.max(1, new Integer(s));
+		}
 	}
 
 	public void run() {
-		Set<ImageZone> zones = new HashSet<ImageZone>();
-		int currentSegmentIndex = 1;
-		boolean changed = true;
-
-		zones.add(new ImageZone(0, image.getWidth(), 0, image.getHeight(),
-				currentSegmentIndex));
+		table = new SummedAreaTable(image);
+		tree = new LinearQuadtree(image.getWidth(), image.getHeight());
 
 		/* SPLIT */
-		while (changed) {
-			if (Thread.interrupted())
-				return;
-			Set<ImageZone> auxZones = new HashSet<ImageZone>();
-
-			changed = false;
-
-			for (ImageZone zone : zones) {
-				for (int i = zone.yFrom; i < zone.yTo; i++) {
-					for (int j = zone.xFrom; j < zone.xTo; j++) {
-						image.getSegment()[i][j] = (byte) zone.segment.segmentIndex;
-					}
-				}
-				if (zone.isHomogeneus() || zone.size() <= minSize
-						|| zone.xTo - zone.xFrom == 1
-						|| zone.yTo - zone.yFrom == 1) {
-					auxZones.add(zone);
-				} else {
-					changed = true;
-					auxZones.addAll(Arrays.asList(zone
-							.divide(currentSegmentIndex)));
-					currentSegmentIndex += 4;
-				}
-			}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			tree.addAll(pool.invoke(new SplitTask(0, 0, 0, 0)));
+		} finally {
+			pool.shutdown();
+		}
+		if (Thread.interrupted())
+			return;
 
+		for (int leaf = 0; leaf < tree.size(); leaf++) {
+			paint(leaf, leaf + 1);
+		}
+		if (observer != null) {
 			observer.onChange();
-			zones = auxZones;
 		}
 
 		/* COSMOVISION */
-		ArrayList<ImageSegment> segments = new ArrayList<ImageSegment>();
-		for (ImageZone zone : zones) {
+		RegionMerger merger = new RegionMerger(tree.size(), image.getDepth(),
+				mergeStandardDeviation);
+		for (int leaf = 0; leaf < tree.size(); leaf++) {
+			int xFrom = tree.xFrom(leaf), yFrom = tree.yFrom(leaf);
+			int xTo = tree.xTo(leaf), yTo = tree.yTo(leaf);
+			merger.setRegion(leaf, tree.area(leaf));
+			for (int k = 0; k < image.getDepth(); k++) {
+				merger.setMoments(leaf, k, table.sum(k, xFrom, yFrom, xTo, yTo),
+						table.sumOfSquares(k, xFrom, yFrom, xTo, yTo));
+			}
+		}
+		/*
+		 * Cada par de hojas vecinas aparece una vez, al recorrer el borde este
+		 * o el borde sur de una de ellas.
+		 */
+		for (int leaf = 0; leaf < tree.size(); leaf++) {
 			if (Thread.interrupted())
 				return;
-			ImageSegment currentSegment = zone.segment;
-
-			Set<ImageZone> neighbourZones = new HashSet<ImageZone>();
-			neighbourZones.addAll(zone.north);
-			neighbourZones.addAll(zone.south);
-			neighbourZones.addAll(zone.east);
-			neighbourZones.addAll(zone.west);
-
-			for (ImageZone z : neighbourZones) {
-				if (z.segment != currentSegment) {
-					currentSegment.neighbours.add(z.segment);
+			int xTo = tree.xTo(leaf), yTo = tree.yTo(leaf);
+			if (xTo < image.getWidth()) {
+				for (int y = tree.yFrom(leaf); y < yTo;) {
+					int neighbour = tree.locate(xTo, y);
+					merger.addEdge(leaf, neighbour);
+					y = tree.yTo(neighbour);
 				}
 			}
-			segments.add(currentSegment);
-		}
-
-		/* MERGE */
-		changed = true;
-		while (changed) {
-			if (Thread.interrupted())
-				return;
-			changed = false;
-
-			sortAndRemoveEmpty(segments);
-
-			for (ImageSegment segment : segments) {
-
-				if (segment.zones.size() == 0)
-					continue;
-
-				ImageSegment bestNeighbour = segment
-						.getBestHomogeneousNeighbour();
-
-				if (bestNeighbour != null) {
-
-					segment.mergeWithNeighbour(bestNeighbour);
-					changed = true;
-
-					for (ImageZone zone : segment.zones) {
-						for (int i = zone.yFrom; i < zone.yTo; i++) {
-							for (int j = zone.xFrom; j < zone.xTo; j++) {
-								image.getSegment()[i][j] = (byte) (segment.segmentIndex);
-							}
-						}
-					}
+			if (yTo < image.getHeight()) {
+				for (int x = tree.xFrom(leaf); x < xTo;) {
+					int neighbour = tree.locate(x, yTo);
+					merger.addEdge(leaf, neighbour);
+					x = tree.xTo(neighbour);
 				}
 			}
-			observer.onChange();
-		}
-		if (observer != null) {
-			observer.onComplete();
 		}
-	}
 
-	private void sortAndRemoveEmpty(ArrayList<ImageSegment> segments) {
+		/* MERGE */
+		if (!merger.merge())
+			return;
 
-		List<ImageSegment> auxList = new ArrayList<ImageSegment>();
-		for (ImageSegment s : segments) {
-			if (s.size() != 0) {
-				auxList.add(s);
+		/* Se pinta cada hoja con el segmento de su raíz una única vez */
+		int[] segmentIndex = new int[tree.size()];
+		int segmentCount = 0;
+		for (int leaf = 0; leaf < tree.size(); leaf++) {
+			int root = merger.find(leaf);
+			if (segmentIndex[root] == 0) {
+				segmentIndex[root] = ++segmentCount;
 			}
+			paint(leaf, segmentIndex[root]);
 		}
 
-		ImageSegment[] segmentsArray = new ImageSegment[auxList.size()];
-		Arrays.sort(auxList.toArray(segmentsArray),
-				new Comparator<ImageSegment>() {
-					public int compare(ImageSegment arg0, ImageSegment arg1) {
-						return arg0.size() - arg1.size();
-					}
-				});
-
-		segments.clear();
-		int index = 1;
-		for (ImageSegment s : segmentsArray) {
-			segments.add(s);
-			s.segmentIndex = index++;
+		if (observer != null) {
+			observer.onChange();
+			observer.onComplete();
 		}
-		return;
 	}
 
-	class ImageSegment {
-
-		private Set<ImageSegment> neighbours = new HashSet<ImageSegment>();
-		private Set<ImageZone> zones = new HashSet<ImageZone>();
-		private int segmentIndex;
-
-		public ImageSegment(ImageZone zone, int segment) {
-			this.zones.add(zone);
-			zone.segment = this;
-			this.segmentIndex = segment;
+	/*
+	 * Divide recursivamente el nodo dado, con esquina en (x, y), y agrega sus
+	 * hojas a leaves en orden Z. Los nodos que quedan fuera de la imagen se
+	 * descartan.
+	 */
+	private void split(LinearQuadtree leaves, long code, int level, int x, int y) {
+		if (x >= image.getWidth() || y >= image.getHeight()) {
+			return;
 		}
+		int side = tree.getSide() >> level;
+		int xTo = Math.min(x + side, image.getWidth());
+		int yTo = Math.min(y + side, image.getHeight());
 
-		public ImageSegment getBestHomogeneousNeighbour() {
-
-			double bestNeighbourDistance = Double.MAX_VALUE;
-			ImageSegment bestNeighbour = null;
-
-			for (ImageSegment neighbour : this.neighbours) {
-				if (neighbour.size() == 0) {
-					continue;
-				}
-				if (this.isHomogeneousWithRespectTo(neighbour)) {
-					if (this.distanceWithNeighbour(neighbour) < bestNeighbourDistance) {
-						bestNeighbourDistance = this
-								.distanceWithNeighbour(neighbour);
-						bestNeighbour = neighbour;
-					}
-				}
-			}
-			return bestNeighbour;
+		if (isLeaf(x, y, xTo, yTo)) {
+			leaves.add(code, level);
+			return;
 		}
-
-		public boolean isHomogeneousWithRespectTo(ImageSegment segment) {
-			for (int i = 0; i < image.getDepth(); i++) {
-				if (this.distanceWith(segment, i) > mergeStandardDeviation)
-					return false;
-			}
-			return true;
-		}
-
-		public void mergeWithNeighbour(ImageSegment segment) {
-
-			segment.segmentIndex = 0;
-
-			for (ImageZone zone : segment.zones) {
-				zone.segment = this;
-			}
-			this.zones.addAll(segment.zones);
-			segment.zones.clear();
-
-			for (ImageSegment neighbour : segment.neighbours) {
-				neighbour.neighbours.remove(segment);
-
-				if (neighbour != this) {
-					neighbour.neighbours.add(this);
-				}
-			}
-
-			this.neighbours.addAll(segment.neighbours);
-			this.neighbours.remove(this);
-
-			segment.neighbours.clear();
-			segment.zones.clear();
-		}
-
-		public double distanceWithNeighbour(ImageSegment segment) {
-			double acum = 0;
-			for (int i = 0; i < image.getDepth(); i++) {
-				acum += Math.pow(this.distanceWith(segment, i), 2);
-			}
-			return Math.sqrt(acum);
-		}
-
-		private double distanceWith(ImageSegment segment, int feature) {
-
-			double mean = 0;
-			double standardDeviation = 0;
-			int count = 0;
-
-			for (ImageZone zone : zones) {
-				for (int i = zone.yFrom; i < zone.yTo; i++) {
-					for (int j = zone.xFrom; j < zone.xTo; j++) {
-						mean += image.getData()[i][j][feature];
-						count++;
-					}
-				}
-			}
-
-			for (ImageZone zone : segment.zones) {
-				for (int i = zone.yFrom; i < zone.yTo; i++) {
-					for (int j = zone.xFrom; j < zone.xTo; j++) {
-						mean += image.getData()[i][j][feature];
-						count++;
-					}
-				}
-			}
-
-			mean = mean / count;
-
-			for (ImageZone zone : zones) {
-				for (int i = zone.yFrom; i < zone.yTo; i++) {
-					for (int j = zone.xFrom; j < zone.xTo; j++) {
-						standardDeviation += Math.pow(
-								image.getData()[i][j][feature] - mean, 2);
-					}
-				}
-			}
-			for (ImageZone zone : segment.zones) {
-				for (int i = zone.yFrom; i < zone.yTo; i++) {
-					for (int j = zone.xFrom; j < zone.xTo; j++) {
-						standardDeviation += Math.pow(
-								image.getData()[i][j][feature] - mean, 2);
-					}
-				}
-			}
-			standardDeviation = Math.sqrt(standardDeviation / count);
-			return standardDeviation;
-		}
-
-		public int size() {
-			int count = 0;
-			for (ImageZone zone : zones) {
-				count += (zone.yTo - zone.yFrom) * (zone.xTo - zone.xFrom);
-			}
-			return count;
+		int half = side / 2;
+		for (int quadrant = 0; quadrant < 4; quadrant++) {
+			split(leaves, tree.child(code, level, quadrant), level + 1,
+					x + (quadrant & 1) * half, y + (quadrant >> 1) * half);
 		}
 	}
 
-	class ImageZone {
-		private int xFrom;
-		private int yFrom;
-		private int xTo;
-		private int yTo;
-
-		private ImageSegment segment;
-
-		private Set<ImageZone> east = new HashSet<ImageZone>();
-		private Set<ImageZone> west = new HashSet<ImageZone>();
-		private Set<ImageZone> north = new HashSet<ImageZone>();
-		private Set<ImageZone> south = new HashSet<ImageZone>();
-
-		public ImageZone(int x_from, int x_to, int y_from, int y_to,
-				int segmentIndex) {
-
-			if (x_to <= x_from || y_to <= y_from) {
-				throw new RuntimeException("Zone cann not be less than 1 pixel.");
-			}
-
-			this.xFrom = x_from;
-			this.yFrom = y_from;
-			this.xTo = x_to;
-			this.yTo = y_to;
-
-			this.segment = new ImageSegment(this, segmentIndex);
+	/**
+	 * División de un nodo como tarea del pool. Los nodos de más de
+	 * FORK_AREA pixels que no son hoja lanzan una tarea por hijo; los
+	 * menores se dividen en el mismo worker. Cada tarea devuelve sus hojas en
+	 * orden Z, así que concatenar las de los cuatro hijos en orden mantiene
+	 * ordenado el quadtree.
+	 */
+	class SplitTask extends RecursiveTask<LinearQuadtree> {
+		private static final long serialVersionUID = 1L;
+
+		private static final int FORK_AREA = 128 * 128;
+
+		private long code;
+		private int level;
+		private int x;
+		private int y;
+
+		public SplitTask(long code, int level, int x, int y) {
+			this.code = code;
+			this.level = level;
+			this.x = x;
+			this.y = y;
+		}
+
+		protected LinearQuadtree compute() {
+			LinearQuadtree leaves = new LinearQuadtree(image.getWidth(),
+					image.getHeight());
+			if (x >= image.getWidth() || y >= image.getHeight()) {
+				return leaves;
+			}
+			int side = tree.getSide() >> level;
+			int xTo = Math.min(x + side, image.getWidth());
+			int yTo = Math.min(y + side, image.getHeight());
+			if (isLeaf(x, y, xTo, yTo)) {
+				leaves.add(code, level);
+				return leaves;
+			}
+			if ((xTo - x) * (yTo - y) <= FORK_AREA) {
+				split(leaves, code, level, x, y);
+				return leaves;
+			}
+
+			int half = side / 2;
+			SplitTask[] children = new SplitTask[4];
+			for (int quadrant = 0; quadrant < 4; quadrant++) {
+				children[quadrant] = new SplitTask(tree.child(code, level,
+						quadrant), level + 1, x + (quadrant & 1) * half, y
+						+ (quadrant >> 1) * half);
+			}
+			invokeAll(children);
+			for (SplitTask child : children) {
+				leaves.addAll(child.join());
+			}
+			return leaves;
 		}
+	}
 
-		public ImageZone[] divide(int segment) {
-
-			int x_mid = xFrom + ((xTo - xFrom) / 2);
-			int y_mid = yFrom + ((yTo - yFrom) / 2);
-
-			ImageZone nw = new ImageZone(xFrom, x_mid, yFrom, y_mid, segment);
-			ImageZone ne = new ImageZone(x_mid, xTo, yFrom, y_mid, segment + 1);
-			ImageZone sw = new ImageZone(xFrom, x_mid, y_mid, yTo, segment + 2);
-			ImageZone se = new ImageZone(x_mid, xTo, y_mid, yTo, segment + 3);
-
-
-			nw.north = new HashSet<ImageZone>();
-			ne.north = new HashSet<ImageZone>();
-			for (ImageZone neighbour : north) {
-				neighbour.south.remove(this);
-
-				if (neighbour.xFrom < nw.xTo) {
-					nw.north.add(neighbour);
-					neighbour.south.add(nw);
-				}
-
-				if (neighbour.xTo > ne.xFrom) {
-					ne.north.add(neighbour);
-					neighbour.south.add(ne);
-				}
-			}
-
-			sw.south = new HashSet<ImageZone>();
-			se.south = new HashSet<ImageZone>();
-			for (ImageZone neighbour : south) {
-				neighbour.north.remove(this);
-
-				if (neighbour.xFrom < sw.xTo) {
-					sw.south.add(neighbour);
-					neighbour.north.add(sw);
-				}
-
-				if (neighbour.xTo > se.xFrom) {
-					se.south.add(neighbour);
-					neighbour.north.add(se);
-				}
-			}
-
-			nw.west = new HashSet<ImageZone>();
-			sw.west = new HashSet<ImageZone>();
-			for (ImageZone neighbour : west) {
-				neighbour.east.remove(this);
-
-				if (neighbour.yFrom < nw.yTo) {
-					nw.west.add(neighbour);
-					neighbour.east.add(nw);
-				}
-
-				if (neighbour.yFrom < sw.yTo) {
-					sw.west.add(neighbour);
-					neighbour.east.add(sw);
-				}
-			}
-
-			ne.east = new HashSet<ImageZone>();
-			se.east = new HashSet<ImageZone>();
-			for (ImageZone neighbour : east) {
-				neighbour.west.remove(this);
-
-				if (neighbour.yFrom < ne.yTo) {
-					ne.east.add(neighbour);
-					neighbour.west.add(ne);
-				}
-
-				if (neighbour.yFrom < se.yTo) {
-					se.east.add(neighbour);
-					neighbour.west.add(se);
-				}
-			}
-
-			nw.south = new HashSet<ImageZone>(Arrays.asList(sw));
-			nw.east = new HashSet<ImageZone>(Arrays.asList(ne));
-			ne.west = new HashSet<ImageZone>(Arrays.asList(nw));
-			ne.south = new HashSet<ImageZone>(Arrays.asList(se));
-			sw.north = new HashSet<ImageZone>(Arrays.asList(nw));
-			sw.east = new HashSet<ImageZone>(Arrays.asList(se));
-			se.north = new HashSet<ImageZone>(Arrays.asList(ne));
-			se.west = new HashSet<ImageZone>(Arrays.asList(sw));
-
-			return new ImageZone[] { nw, ne, sw, se };
-		}
-
-		public boolean isHomogeneus() {
-			for (int i = 0; i < image.getDepth(); i++) {
-				if (this.standardDeviation(i) > splitStandardDeviation)
-					return false;
-			}
-			return true;
-		}
-
-		public double standardDeviation(int feature) {
-			double mean = mean(feature);
-			double acum = 0;
-			int count = 0;
-
-			for (int i = yFrom; i < yTo; i++) {
-				for (int j = xFrom; j < xTo; j++) {
-					acum += Math.pow(image.getData()[i][j][feature] - mean, 2);
-					count++;
-				}
-			}
+	/* Un nodo es hoja si es una línea, si es chico o si es homogéneo */
+	private boolean isLeaf(int xFrom, int yFrom, int xTo, int yTo) {
+		return xTo - xFrom == 1 || yTo - yFrom == 1
+				|| (xTo - xFrom) * (yTo - yFrom) <= minSize
+				|| isHomogeneous(xFrom, yFrom, xTo, yTo);
+	}
 
-			acum = acum / count;
-			return Math.sqrt(acum);
+	private boolean isHomogeneous(int xFrom, int yFrom, int xTo, int yTo) {
+		for (int i = 0; i < image.getDepth(); i++) {
+			if (table.standardDeviation(i, xFrom, yFrom, xTo, yTo) > splitStandardDeviation)
+				return false;
 		}
+		return true;
+	}
 
-		public double mean(int feature) {
-			double acum = 0;
-			int count = 0;
-
-			for (int i = yFrom; i < yTo; i++) {
-				for (int j = xFrom; j < xTo; j++) {
-					acum += image.getData()[i][j][feature];
-					count++;
-				}
+	private void paint(int leaf, int segmentIndex) {
+		for (int i = tree.yFrom(leaf); i < tree.yTo(leaf); i++) {
+			for (int j = tree.xFrom(leaf); j < tree.xTo(leaf); j++) {
+				image.setLabel(i, j, segmentIndex);
 			}
-
-			return acum / count;
-		}
-
-		public int size() {
-			return (xTo - xFrom) * (yTo - yFrom);
 		}
 	}
-
 }
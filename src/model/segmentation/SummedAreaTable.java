@@ -0,0 +1,81 @@
+package model.segmentation;
+
+import model.FeatureMatrix;
+
+/**
+ * Imágenes integrales de la suma y la suma de cuadrados de cada feature. Con
+ * ellas la media y la varianza de cualquier rectángulo se obtienen en tiempo
+ * constante.
+ */
+class SummedAreaTable {
+
+	private int width;
+	private int stride;
+	private int plane;
+	private long[] sums;
+	private long[] squares;
+
+	public SummedAreaTable(FeatureMatrix image) {
+		this.width = image.getWidth();
+		this.stride = image.getWidth() + 1;
+		this.plane = stride * (image.getHeight() + 1);
+		this.sums = new long[plane * image.getDepth()];
+		this.squares = new long[plane * image.getDepth()];
+
+		for (int k = 0; k < image.getDepth(); k++) {
+			build(image, k);
+		}
+	}
+
+	/*
+	 * La celda (i + 1, j + 1) acumula el rectángulo [0, i] x [0, j].
+	 */
+	private void build(FeatureMatrix image, int feature) {
+		int base = feature * plane;
+
+		for (int i = 0; i < image.getHeight(); i++) {
+			long rowSum = 0;
+			long rowSquares = 0;
+			int cell = base + (i + 1) * stride + 1;
+			for (int j = 0; j < width; j++, cell++) {
+				long value = image.get(i, j, feature);
+				rowSum += value;
+				rowSquares += value * value;
+				sums[cell] = sums[cell - stride] + rowSum;
+				squares[cell] = squares[cell - stride] + rowSquares;
+			}
+		}
+	}
+
+	public long sum(int feature, int xFrom, int yFrom, int xTo, int yTo) {
+		return rectangle(sums, feature, xFrom, yFrom, xTo, yTo);
+	}
+
+	public long sumOfSquares(int feature, int xFrom, int yFrom, int xTo,
+			int yTo) {
+		return rectangle(squares, feature, xFrom, yFrom, xTo, yTo);
+	}
+
+	public double mean(int feature, int xFrom, int yFrom, int xTo, int yTo) {
+		int count = (xTo - xFrom) * (yTo - yFrom);
+		return sum(feature, xFrom, yFrom, xTo, yTo) / (double) count;
+	}
+
+	public double standardDeviation(int feature, int xFrom, int yFrom,
+			int xTo, int yTo) {
+		int count = (xTo - xFrom) * (yTo - yFrom);
+		double mean = sum(feature, xFrom, yFrom, xTo, yTo) / (double) count;
+		double variance = sumOfSquares(feature, xFrom, yFrom, xTo, yTo)
+				/ (double) count - mean * mean;
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	private long rectangle(long[] table, int feature, int xFrom, int yFrom,
+			int xTo, int yTo) {
+		int base = feature * plane;
+		return table[base + yTo * stride + xTo]
+				- table[base + yFrom * stride + xTo]
+				- table[base + yTo * stride + xFrom]
+				+ table[base + yFrom * stride + xFrom];
+	}
+}
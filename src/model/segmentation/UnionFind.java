@@ -0,0 +1,52 @@
+package model.segmentation;
+
+/**
+ * Conjuntos disjuntos sobre los enteros [0, size), con compresión de caminos
+ * y unión por rango, guardados en arreglos primitivos.
+ */
+class UnionFind {
+
+	private int[] parent;
+	private byte[] rank;
+
+	public UnionFind(int size) {
+		this.parent = new int[size];
+		this.rank = new byte[size];
+		for (int i = 0; i < size; i++) {
+			parent[i] = i;
+		}
+	}
+
+	public int find(int element) {
+		int root = element;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		while (parent[element] != root) {
+			int next = parent[element];
+			parent[element] = root;
+			element = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Une los conjuntos de a y b y devuelve la raíz del conjunto resultante.
+	 */
+	public int union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA == rootB) {
+			return rootA;
+		}
+		if (rank[rootA] < rank[rootB]) {
+			parent[rootA] = rootB;
+			return rootB;
+		}
+		if (rank[rootA] == rank[rootB]) {
+			rank[rootA]++;
+		}
+		parent[rootB] = rootA;
+		return rootA;
+	}
+}
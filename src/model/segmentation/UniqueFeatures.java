@@ -0,0 +1,147 @@
+package model.segmentation;
+
+import java.util.Arrays;
+
+import model.FeatureMatrix;
+
+/**
+ * Conjunto de los vectores de features distintos de una imagen, cada uno con
+ * la cantidad de pixels que lo tienen. Se guarda en una tabla de hash de
+ * direccionamiento abierto sobre arreglos primitivos.
+ */
+class UniqueFeatures {
+
+	private int depth;
+	private int size;
+	private int[] vectors;
+	private int[] weights;
+	private int[] table; /* indice + 1 de cada vector, 0 si la celda está libre */
+
+	private UniqueFeatures(int depth) {
+		this.depth = depth;
+		this.vectors = new int[64 * depth];
+		this.weights = new int[64];
+		this.table = new int[128];
+	}
+
+	/**
+	 * Recorre la imagen y agrupa los pixels con el mismo vector de features.
+	 * Devuelve null si hay más de maxSize vectores distintos.
+	 */
+	static UniqueFeatures collect(FeatureMatrix image, int maxSize) {
+		UniqueFeatures unique = new UniqueFeatures(image.getDepth());
+		int[] feature = new int[image.getDepth()];
+
+		for (int p = 0; p < image.getSize(); p++) {
+			image.getFeature(p, feature);
+			int slot = unique.slot(feature);
+			int index = unique.table[slot] - 1;
+			if (index < 0) {
+				if (unique.size == maxSize) {
+					return null;
+				}
+				index = unique.add(slot, feature);
+			}
+			unique.weights[index]++;
+		}
+		return unique;
+	}
+
+	/**
+	 * Crea un conjunto vacío para vectores de depth features.
+	 */
+	static UniqueFeatures create(int depth) {
+		return new UniqueFeatures(depth);
+	}
+
+	/**
+	 * Suma un pixel con el vector dado, agregándolo si no estaba, y devuelve
+	 * su indice.
+	 */
+	public int add(int[] feature) {
+		int slot = slot(feature);
+		int index = table[slot] - 1;
+		if (index < 0) {
+			index = add(slot, feature);
+		}
+		weights[index]++;
+		return index;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int weight(int index) {
+		return weights[index];
+	}
+
+	public int[] getFeature(int index, int[] feature) {
+		System.arraycopy(vectors, index * depth, feature, 0, depth);
+		return feature;
+	}
+
+	/**
+	 * Devuelve el indice del vector dado, o -1 si no está en el conjunto.
+	 */
+	public int find(int[] feature) {
+		return table[slot(feature)] - 1;
+	}
+
+	private int add(int slot, int[] feature) {
+		if (size == weights.length) {
+			vectors = Arrays.copyOf(vectors, vectors.length * 2);
+			weights = Arrays.copyOf(weights, weights.length * 2);
+		}
+		System.arraycopy(feature, 0, vectors, size * depth, depth);
+		size++;
+		table[slot] = size;
+
+		/* Se mantiene la tabla a lo sumo por la mitad */
+		if (size * 2 > table.length) {
+			table = new int[table.length * 2];
+			for (int i = 0; i < size; i++) {
+				table[slot(vectors, i * depth)] = i + 1;
+			}
+		}
+		return size - 1;
+	}
+
+	private int slot(int[] feature) {
+		int mask = table.length - 1;
+		int slot = hash(feature, 0) & mask;
+		while (table[slot] != 0 && !equals(table[slot] - 1, feature, 0)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int slot(int[] source, int offset) {
+		int mask = table.length - 1;
+		int slot = hash(source, offset) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int hash(int[] source, int offset) {
+		int h = 1;
+		for (int k = 0; k < depth; k++) {
+			h = 31 * h + source[offset + k];
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	private boolean equals(int index, int[] feature, int offset) {
+		for (int k = 0, base = index * depth; k < depth; k++) {
+			if (vectors[base + k] != feature[offset + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,289 @@
+package model.segmentation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import model.FeatureMatrix;
+import model.SegmentationObserver;
+
+/**
+ * Segmentación por watershed con marcadores.
+ *
+ * Se calcula la magnitud del gradiente de las features, cuantizada a 256
+ * niveles, y se inunda desde los marcadores. Con "markers" en "minima" (por
+ * defecto) cada mínimo regional del gradiente es un marcador. Con "slic" se
+ * corre antes Slic sobre la misma imagen, y con "labels" se toman los
+ * segmentos que ya tiene la FeatureMatrix; en ambos casos se borran los
+ * pixels de borde de cada segmento, así la inundación vuelve a decidir los
+ * bordes siguiendo el gradiente. Si no queda ningún pixel con segmento se
+ * usan los mínimos.
+ *
+ * Con los mínimos como marcadores el ruido da un segmento por cada pozo del
+ * gradiente, así que en imágenes ruidosas conviene combinarlo con
+ * "minRegionArea" o usar "slic".
+ *
+ * La inundación usa una cola de prioridad de 256 baldes FIFO: cada pixel entra
+ * una sola vez, con el segmento del vecino que lo alcanzó y prioridad igual a
+ * su nivel de gradiente (o al nivel actual si es menor), así que todo el
+ * proceso es O(n). Los segmentos resultantes son conexos.
+ */
+public class Watershed extends SegmentationAlgorithm {
+
+	private static final int LEVELS = 256;
+
+	private FeatureMatrix image;
+	private SegmentationObserver observer;
+
+	private boolean fromLabels = false;
+	private SegmentationAlgorithm markers;
+	private HashMap<String, String> params;
+
+	private int width;
+	private int height;
+	private byte[] gradient;
+
+	/* Cola de baldes: listas enlazadas de pixels por nivel */
+	private int[] head = new int[LEVELS];
+	private int[] tail = new int[LEVELS];
+	private int[] next;
+
+	public void process(FeatureMatrix image, SegmentationObserver observer,
+			HashMap<String, String> params) {
+		this.image = image;
+		this.observer = observer;
+		this.params = params;
+
+		String s = params.get("markers");
+		if (s != null) {
+			fromLabels = s.equalsIgnoreCase("labels");
+			if (s.equalsIgnoreCase("slic")) {
+				markers = new Slic();
+			}
+		}
+	}
+
+	/**
+	 * Interrumpe también al algoritmo que da los marcadores.
+	 */
+	public void interrupt() {
+		super.interrupt();
+		if (markers != null) {
+			markers.interrupt();
+		}
+	}
+
+	public void run() {
+		width = image.getWidth();
+		height = image.getHeight();
+		if (markers != null) {
+			markers.process(image, new SegmentationObserver() {
+
+				public void onChange() {
+				}
+
+				public void onComplete() {
+				}
+
+			}, params);
+			markers.start();
+			try {
+				markers.join();
+			} catch (InterruptedException e) {
+				markers.interrupt();
+				return;
+			}
+		}
+		computeGradient();
+		if (isInterrupted()) {
+			return;
+		}
+
+		int size = image.getSize();
+		int[] labels = new int[size];
+		if (!(fromLabels || markers != null) || !markInteriors(labels)) {
+			markMinima(labels);
+		}
+		if (isInterrupted()) {
+			return;
+		}
+
+		/* FLOOD */
+		next = new int[size];
+		Arrays.fill(head, -1);
+		Arrays.fill(tail, -1);
+		for (int p = 0; p < size; p++) {
+			if (labels[p] >= 0) {
+				pushNeighbours(p, labels, 0);
+			}
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			while (head[level] >= 0) {
+				int p = head[level];
+				head[level] = next[p];
+				if (head[level] < 0) {
+					tail[level] = -1;
+				}
+				pushNeighbours(p, labels, level);
+			}
+		}
+
+		for (int p = 0; p < size; p++) {
+			image.setLabel(p, labels[p]);
+		}
+		if (observer != null) {
+			observer.onChange();
+			observer.onComplete();
+		}
+	}
+
+	/*
+	 * Encola los vecinos sin segmento de p con el segmento de p, con prioridad
+	 * igual a su gradiente pero no menor al nivel actual.
+	 */
+	private void pushNeighbours(int p, int[] labels, int level) {
+		int x = p % width;
+		int y = p / width;
+		if (x > 0) {
+			push(p - 1, labels[p], labels, level);
+		}
+		if (x + 1 < width) {
+			push(p + 1, labels[p], labels, level);
+		}
+		if (y > 0) {
+			push(p - width, labels[p], labels, level);
+		}
+		if (y + 1 < height) {
+			push(p + width, labels[p], labels, level);
+		}
+	}
+
+	private void push(int p, int label, int[] labels, int level) {
+		if (labels[p] >= 0) {
+			return;
+		}
+		labels[p] = label;
+		int priority = Math.max(gradient[p] & 0xFF, level);
+		next[p] = -1;
+		if (tail[priority] < 0) {
+			head[priority] = p;
+		} else {
+			next[tail[priority]] = p;
+		}
+		tail[priority] = p;
+	}
+
+	/*
+	 * Norma de las diferencias centrales de las features en x e y, escalada
+	 * para que el máximo de la imagen quede en LEVELS - 1.
+	 */
+	private void computeGradient() {
+		int size = image.getSize();
+		double[] magnitude = new double[size];
+		double max = 0;
+		for (int y = 0; y < height; y++) {
+			int up = Math.max(0, y - 1);
+			int down = Math.min(height - 1, y + 1);
+			for (int x = 0; x < width; x++) {
+				int left = Math.max(0, x - 1);
+				int right = Math.min(width - 1, x + 1);
+				long acum = 0;
+				for (int k = 0; k < image.getDepth(); k++) {
+					long dx = image.get(y, right, k) - image.get(y, left, k);
+					long dy = image.get(down, x, k) - image.get(up, x, k);
+					acum += dx * dx + dy * dy;
+				}
+				int p = image.pixel(y, x);
+				magnitude[p] = Math.sqrt(acum);
+				max = Math.max(max, magnitude[p]);
+			}
+		}
+
+		gradient = new byte[size];
+		double scale = (max == 0) ? 0 : (LEVELS - 1) / max;
+		for (int p = 0; p < size; p++) {
+			gradient[p] = (byte) (int) (magnitude[p] * scale);
+		}
+	}
+
+	/*
+	 * Copia los segmentos de la FeatureMatrix salvo en los pixels que tienen
+	 * un vecino de otro segmento. Devuelve false si no queda ningún marcador.
+	 */
+	private boolean markInteriors(int[] labels) {
+		boolean found = false;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int p = image.pixel(y, x);
+				int label = image.getLabel(p);
+				if (label >= 0
+						&& (x == 0 || image.getLabel(p - 1) == label)
+						&& (x + 1 == width || image.getLabel(p + 1) == label)
+						&& (y == 0 || image.getLabel(p - width) == label)
+						&& (y + 1 == height || image.getLabel(p + width) == label)) {
+					labels[p] = label;
+					found = true;
+				} else {
+					labels[p] = -1;
+				}
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Etiqueta cada mínimo regional, es decir cada meseta conexa del
+	 * gradiente sin vecinos más bajos, con un segmento propio. Las mesetas se
+	 * recorren con una pila explícita y los pixels de las que no son mínimos
+	 * quedan sin segmento.
+	 */
+	private void markMinima(int[] labels) {
+		int size = labels.length;
+		Arrays.fill(labels, -1);
+		boolean[] visited = new boolean[size];
+		int[] plateau = new int[size];
+		int segmentCount = 0;
+
+		for (int start = 0; start < size; start++) {
+			if (visited[start]) {
+				continue;
+			}
+			int level = gradient[start] & 0xFF;
+			int count = 0;
+			boolean minimum = true;
+			plateau[count++] = start;
+			visited[start] = true;
+			for (int i = 0; i < count; i++) {
+				int p = plateau[i];
+				int x = p % width;
+				int y = p / width;
+				for (int n = 0; n < 4; n++) {
+					int q;
+					if (n == 0 && x > 0) {
+						q = p - 1;
+					} else if (n == 1 && x + 1 < width) {
+						q = p + 1;
+					} else if (n == 2 && y > 0) {
+						q = p - width;
+					} else if (n == 3 && y + 1 < height) {
+						q = p + width;
+					} else {
+						continue;
+					}
+					int value = gradient[q] & 0xFF;
+					if (value < level) {
+						minimum = false;
+					} else if (value == level && !visited[q]) {
+						visited[q] = true;
+						plateau[count++] = q;
+					}
+				}
+			}
+			if (minimum) {
+				for (int i = 0; i < count; i++) {
+					labels[plateau[i]] = segmentCount;
+				}
+				segmentCount++;
+			}
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package view;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import model.FeatureMatrix;
+import model.ImageMatrix;
+import model.MappedFeatureMatrix;
+import model.SegmentationObserver;
+import model.TiledSegmentation;
+import model.converters.ColorImageConverter;
+import model.converters.HistogramImageConverter;
+import model.converters.ImageConverter;
+import model.segmentation.ConnectedComponents;
+import model.segmentation.Pyramid;
+import model.segmentation.SegmentationAlgorithm;
+
+/**
+ * Modo batch sin interfaz gráfica: segmenta todas las imágenes dadas con un
+ * mismo conversor y algoritmo, sobre un pool fijo de workers, y escribe cada
+ * resultado en el directorio de salida.
+ *
+ * Uso:
+ *
+ * <pre>
+ * java -cp bin/cgtpe1.jar view.Batch [opciones] [clave=valor ...] entrada ...
+ * </pre>
+ *
+ * Las entradas pueden ser archivos, directorios (se toman todas sus imágenes)
+ * o patrones como img/*.jpg. Los pares clave=valor son los mismos parámetros
+ * que arman los paneles de opciones, por ejemplo clustersCount=8 o
+ * minRegionArea=50. Con -tile, minRegionArea se aplica dentro de cada tile
+ * antes de unir las costuras.
+ */
+public class Batch {
+
+	private static final String USAGE = "Usage: view.Batch [options] [key=value ...] input ...\n"
+			+ "  -feature color|histogram   feature converter (default color)\n"
+			+ "  -algorithm NAME            class in model.segmentation (default KMeans)\n"
+			+ "  -output DIR                output directory (default .)\n"
+			+ "  -workers N                 images processed at once (default: processors)\n"
+			+ "  -tile SIZE                 segment by tiles of SIZE pixels, writes PPM;\n"
+			+ "                             minRegionArea applies within each tile\n"
+			+ "  -overlap N                 tile overlap in pixels (default 16)\n"
+			+ "  -mapped DIR                keep features and labels in memory-mapped\n"
+			+ "                             scratch files in DIR instead of the heap";
+
+	private String feature = "color";
+	private String algorithm = "KMeans";
+	private File output = new File(".");
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int tileSize = 0;
+	private int overlap = 16;
+	private File mapped = null;
+	private HashMap<String, String> params = new HashMap<String, String>();
+	private List<File> inputs = new ArrayList<File>();
+
+	public static void main(String[] args) {
+		Batch batch = new Batch();
+		try {
+			batch.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+		System.exit(batch.run() ? 0 : 1);
+	}
+
+	private void parse(String[] args) throws IOException {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("-")) {
+				if (i + 1 == args.length) {
+					throw new IllegalArgumentException("Missing value for " + arg);
+				}
+				String value = args[++i];
+				if (arg.equals("-feature")) {
+					feature = value;
+				} else if (arg.equals("-algorithm")) {
+					algorithm = value;
+				} else if (arg.equals("-output")) {
+					output = new File(value);
+				} else if (arg.equals("-workers")) {
+					workers = Math.max(1, new Integer(value));
+				} else if (arg.equals("-tile")) {
+					tileSize = new Integer(value);
+				} else if (arg.equals("-overlap")) {
+					overlap = new Integer(value);
+				} else if (arg.equals("-mapped")) {
+					mapped = new File(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			} else if (arg.indexOf('=') > 0) {
+				params.put(arg.substring(0, arg.indexOf('=')),
+						arg.substring(arg.indexOf('=') + 1));
+			} else {
+				addInput(arg);
+			}
+		}
+		if (inputs.isEmpty()) {
+			throw new IllegalArgumentException("No input images");
+		}
+		/* Las salidas se nombran sólo por el nombre base de cada entrada */
+		HashMap<String, File> names = new HashMap<String, File>();
+		for (File input : inputs) {
+			File other = names.put(baseName(input), input);
+			if (other != null) {
+				throw new IllegalArgumentException("Inputs " + other + " and "
+						+ input + " would write the same output");
+			}
+		}
+		if (!feature.equalsIgnoreCase("color")
+				&& !feature.equalsIgnoreCase("histogram")) {
+			throw new IllegalArgumentException("Unknown feature " + feature);
+		}
+		createAlgorithm();
+
+		/*
+		 * Con varios workers cada algoritmo usa un solo thread, salvo que se
+		 * pida otra cosa, para no repartir los procesadores dos veces.
+		 */
+		if (workers > 1 && !params.containsKey("threads")) {
+			params.put("threads", "1");
+		}
+		if (!output.isDirectory() && !output.mkdirs()) {
+			throw new IOException("Cannot create " + output);
+		}
+		if (mapped != null && tileSize > 0) {
+			throw new IllegalArgumentException(
+					"-mapped cannot be combined with -tile");
+		}
+		if (mapped != null && !mapped.isDirectory() && !mapped.mkdirs()) {
+			throw new IOException("Cannot create " + mapped);
+		}
+	}
+
+	/* Agrega un archivo, las imágenes de un directorio o las de un patrón */
+	private void addInput(String arg) throws IOException {
+		File file = new File(arg);
+		if (file.isFile()) {
+			if (!inputs.contains(file)) {
+				inputs.add(file);
+			}
+			return;
+		}
+		Path directory;
+		String glob;
+		if (file.isDirectory()) {
+			directory = file.toPath();
+			glob = "*";
+		} else {
+			Path path = Paths.get(arg);
+			directory = (path.getParent() == null) ? Paths.get(".") : path
+					.getParent();
+			glob = path.getFileName().toString();
+		}
+		if (!Files.isDirectory(directory)) {
+			throw new IOException("No such file or directory: " + arg);
+		}
+
+		List<File> files = new ArrayList<File>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob);
+		try {
+			for (Path path : stream) {
+				File f = path.toFile();
+				if (f.isFile() && isImage(f)) {
+					files.add(f);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		if (files.isEmpty()) {
+			throw new IOException("No images match " + arg);
+		}
+		Collections.sort(files);
+		for (File f : files) {
+			if (!inputs.contains(f)) {
+				inputs.add(f);
+			}
+		}
+	}
+
+	private static boolean isImage(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot > 0
+				&& ImageIO.getImageReadersBySuffix(name.substring(dot + 1))
+						.hasNext();
+	}
+
+	private ImageConverter createConverter(ImageMatrix image) {
+		if (feature.equalsIgnoreCase("histogram")) {
+			return new HistogramImageConverter(image, params);
+		}
+		return new ColorImageConverter(image, params);
+	}
+
+	private SegmentationAlgorithm createAlgorithm() {
+		SegmentationAlgorithm sa;
+		try {
+			sa = (SegmentationAlgorithm) Class.forName(
+					"model.segmentation." + algorithm).getDeclaredConstructor()
+					.newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+		}
+		String levels = params.get("pyramidLevels");
+		if (levels != null && new Integer(levels) > 0) {
+			sa = new Pyramid(sa);
+		}
+		return sa;
+	}
+
+	/* Procesa todas las entradas; devuelve false si alguna falló */
+	private boolean run() {
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (final File input : inputs) {
+			results.add(pool.submit(new Callable<String>() {
+
+				public String call() throws Exception {
+					return process(input);
+				}
+
+			}));
+		}
+		pool.shutdown();
+
+		boolean ok = true;
+		for (int i = 0; i < inputs.size(); i++) {
+			try {
+				System.out.println(results.get(i).get());
+			} catch (Exception e) {
+				Throwable cause = (e.getCause() == null) ? e : e.getCause();
+				System.err.println(inputs.get(i) + ": " + cause);
+				ok = false;
+			}
+		}
+		System.out.println(inputs.size() + " images in "
+				+ millis(System.nanoTime() - start) + " ms");
+		return ok;
+	}
+
+	/* Segmenta una imagen y devuelve la línea de tiempos */
+	private String process(File input) throws IOException {
+		String name = baseName(input);
+
+		if (tileSize > 0) {
+			File result = new File(output, name + ".ppm");
+			long t0 = System.nanoTime();
+			TiledSegmentation tiled = new TiledSegmentation(input, tileSize,
+					overlap);
+			int segments = tiled.segment(new TiledSegmentation.Factory() {
+
+				public ImageConverter createConverter(ImageMatrix tile) {
+					return Batch.this.createConverter(tile);
+				}
+
+				public SegmentationAlgorithm createAlgorithm() {
+					return Batch.this.createAlgorithm();
+				}
+
+			}, params, result, null);
+			return input + " " + tiled.getWidth() + "x" + tiled.getHeight()
+					+ " tiled " + millis(System.nanoTime() - t0) + " ms, "
+					+ segments + " segments";
+		}
+
+		long t0 = System.nanoTime();
+		BufferedImage image = ImageIO.read(input);
+		if (image == null) {
+			throw new IOException("Unsupported image format");
+		}
+		ImageMatrix matrix = new ImageMatrix(image);
+		image = null;
+
+		long t1 = System.nanoTime();
+		ImageConverter converter = createConverter(matrix);
+		File features = null, labels = null;
+		try {
+			FeatureMatrix fm;
+			if (mapped != null) {
+				features = new File(mapped, name + ".features");
+				labels = new File(mapped, name + ".labels");
+				fm = converter.createFeatureMatrix(MappedFeatureMatrix.create(
+						features, labels, matrix.getWidth(),
+						matrix.getHeight(), converter.getDepth(),
+						converter.getLayout()));
+			} else {
+				fm = converter.createFeatureMatrix();
+			}
+
+			long t2 = System.nanoTime();
+			SegmentationAlgorithm sa = createAlgorithm();
+			sa.process(fm, new SegmentationObserver() {
+
+				public void onChange() {
+				}
+
+				public void onComplete() {
+				}
+
+			}, params);
+			sa.run();
+			String area = params.get("minRegionArea");
+			if (area != null && new Integer(area) > 0) {
+				new ConnectedComponents(fm, 1).relabel(new Integer(area));
+			}
+
+			long t3 = System.nanoTime();
+			File result = new File(output, name + ".png");
+			ImageIO.write(fm.getImageMatrix(matrix).getBufferedImage(), "png",
+					result);
+
+			long t4 = System.nanoTime();
+			return input + " " + fm.getWidth() + "x" + fm.getHeight()
+					+ " read " + millis(t1 - t0) + " ms, convert "
+					+ millis(t2 - t1) + " ms, segment " + millis(t3 - t2)
+					+ " ms, write " + millis(t4 - t3) + " ms";
+		} finally {
+			/* Los archivos de trabajo se borran aunque falle algún paso */
+			if (features != null) {
+				features.delete();
+				labels.delete();
+			}
+		}
+	}
+
+	private static String baseName(File file) {
+		String name = file.getName();
+		if (name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+		return name;
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+}
@@ -3,13 +3,17 @@ package view;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
 
 import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
 
 import model.FeatureMatrix;
 import model.ImageMatrix;
 import model.SegmentationObserver;
 import model.converters.ImageConverter;
+import model.segmentation.ConnectedComponents;
 import model.segmentation.SegmentationAlgorithm;
 
 public class Controller {
@@ -78,12 +82,7 @@ public class Controller {
 		ImageView iv = view.getImageView();
 		iv.redrawImages(original, original, zoom);
 
-		try {
-			matrix = new ImageMatrix(original);
-		} catch (IOException e) {
-			raiseException(e.getMessage());
-			return;
-		}
+		matrix = new ImageMatrix(original);
 	}
 
 	public void quit() {
@@ -103,20 +102,58 @@ public class Controller {
 			final FeatureMatrix fm = ic.createFeatureMatrix();
 			stopSegmentation();
 			algorithm = p.getSelectedSegmentationMethod();
+			final SegmentationAlgorithm run = algorithm;
+			final HashMap<String, String> params = p.getSegmentationParameters();
 			algorithm.process(fm, new SegmentationObserver() {
 
-				private int i = 0;
+				/*
+				 * Doble buffer propio de esta corrida: se pinta en el que no se
+				 * muestra y se espera a que Swing lo tome antes de reusar el
+				 * otro, así una corrida vieja nunca escribe lo que se ve.
+				 */
+				private ImageMatrix[] buffers = new ImageMatrix[2];
+				private int back = 0;
+				private boolean shown;
 
 				public void onChange() {
-					matrix = fm.getImageMatrix();
-					view.getImageView().redrawImage(matrix.getBufferedImage(),
-							zoom);
+					buffers[back] = fm.getImageMatrix(buffers[back]);
+					final ImageMatrix frame = buffers[back];
+					shown = false;
+					try {
+						SwingUtilities.invokeAndWait(new Runnable() {
+
+							public void run() {
+								if (algorithm != run) {
+									return;
+								}
+								matrix = frame;
+								shown = true;
+								view.getImageView().redrawImage(
+										frame.getBufferedImage(), zoom);
+							}
+
+						});
+					} catch (InterruptedException e) {
+						run.interrupt();
+						return;
+					} catch (InvocationTargetException e) {
+						throw new RuntimeException(e.getCause());
+					}
+					if (shown) {
+						back = 1 - back;
+					}
 				}
 
 				public void onComplete() {
+					String s = params.get("minRegionArea");
+					if (s != null && new Integer(s) > 0) {
+						new ConnectedComponents(fm, Runtime.getRuntime()
+								.availableProcessors()).relabel(new Integer(s));
+						onChange();
+					}
 				}
 
-			}, p.getSegmentationParameters());
+			}, params);
 			algorithm.start();
 		}
 	}
@@ -14,7 +14,7 @@ import model.segmentation.*;
 public class SegmentationOptionsPanel extends JPanel {
 
 	private static enum SegmentationMethod {
-		K_MEANS("Clusterization"), SPLIT_AND_MERGE("Split & Merge");
+		K_MEANS("Clusterization"), SPLIT_AND_MERGE("Split & Merge"), ANTIPOLE_TREE("Antipole Tree"), SLIC("SLIC Superpixels"), GRAPH_BASED("Graph based"), MEAN_SHIFT("Mean shift"), WATERSHED("Watershed"), GAUSSIAN_MIXTURE("Gaussian mixture");
 
 		private String name;
 
@@ -94,6 +94,28 @@ public class SegmentationOptionsPanel extends JPanel {
 		case SPLIT_AND_MERGE:
 			sa = new SplitAndMerge();
 			break;
+		case ANTIPOLE_TREE:
+			sa = new AntipoleTree();
+			break;
+		case SLIC:
+			sa = new Slic();
+			break;
+		case GRAPH_BASED:
+			sa = new GraphBased();
+			break;
+		case MEAN_SHIFT:
+			sa = new MeanShift();
+			break;
+		case WATERSHED:
+			sa = new Watershed();
+			break;
+		case GAUSSIAN_MIXTURE:
+			sa = new GaussianMixture();
+			break;
+		}
+		String levels = parameters.get("pyramidLevels");
+		if (levels != null && new Integer(levels) > 0) {
+			sa = new Pyramid(sa);
 		}
 		return sa;
 	}
@@ -123,6 +145,9 @@ public class SegmentationOptionsPanel extends JPanel {
 		case K_MEANS:
 			c.gridy = 0;
 			addSpinner("Maximum number of Clusters:", "clustersCount", new SpinnerNumberModel(10, 2, 50, 1), c);
+			c.insets = new Insets(2, 4, 2, 4);
+			c.gridy = 1;
+			addCheckBox("Accelerated (triangle inequality)", "accelerated", true, c);
 			break;
 			
 		case SPLIT_AND_MERGE:
@@ -135,8 +160,55 @@ public class SegmentationOptionsPanel extends JPanel {
 			addSpinner("Minimal area:", "minSize", new SpinnerNumberModel(3, 1, 100, 1), c);
 			break;
 			
+		case ANTIPOLE_TREE:
+			c.gridy = 0;
+			addSpinner("Maximum cluster diameter:", "diameter", new SpinnerNumberModel(40, 1, 500, 1), c);
+			break;
+			
+		case SLIC:
+			c.gridy = 0;
+			addSpinner("Number of superpixels:", "superpixels", new SpinnerNumberModel(400, 10, 5000, 10), c);
+			c.insets = new Insets(2, 4, 2, 4);
+			c.gridy = 1;
+			addSpinner("Compactness:", "compactness", new SpinnerNumberModel(10, 1, 40, 1), c);
+			break;
+			
+		case GRAPH_BASED:
+			c.gridy = 0;
+			addSpinner("Scale:", "scale", new SpinnerNumberModel(300, 10, 5000, 10), c);
+			c.insets = new Insets(2, 4, 2, 4);
+			c.gridy = 1;
+			addSpinner("Minimal area:", "minSize", new SpinnerNumberModel(20, 1, 1000, 1), c);
+			c.gridy = 2;
+			addCheckBox("8-connected neighbours", "eightConnected", true, c);
+			break;
+			
+		case MEAN_SHIFT:
+			c.gridy = 0;
+			addSpinner("Spatial radius:", "spatialRadius", new SpinnerNumberModel(8, 1, 50, 1), c);
+			c.insets = new Insets(2, 4, 2, 4);
+			c.gridy = 1;
+			addSpinner("Range radius:", "rangeRadius", new SpinnerNumberModel(16, 1, 255, 1), c);
+			break;
+			
+		case WATERSHED:
+			c.gridy = 0;
+			addComboBox("Markers:", "markers", new String[] { "Regional minima", "SLIC superpixels" }, new String[] { "minima", "slic" }, c);
+			break;
+			
+		case GAUSSIAN_MIXTURE:
+			c.gridy = 0;
+			addSpinner("Number of components:", "clustersCount", new SpinnerNumberModel(10, 2, 50, 1), c);
+			break;
+			
 		}
 		
+		c.insets = new Insets(2, 4, 2, 4);
+		c.gridy = 10;
+		addSpinner("Minimal region area (0: off):", "minRegionArea", new SpinnerNumberModel(0, 0, 10000, 1), c);
+		c.gridy = 11;
+		addSpinner("Pyramid levels (0: off):", "pyramidLevels", new SpinnerNumberModel(0, 0, 4, 1), c);
+		
 		panel.setVisible(true);
 		
 	}
@@ -181,4 +253,27 @@ public class SegmentationOptionsPanel extends JPanel {
 		parameters.put(key, checked ? "1" : "0");
 	}
 
+	private void addComboBox(String name, String key, String[] names, String[] values, GridBagConstraints c) {
+		JLabel label = new JLabel(name);
+		c.gridx = 0;
+		c.gridwidth = 2;
+		panel.add(label, c);
+		JComboBox combo = new JComboBox(names);
+		final String k = key;
+		final String[] v = values;
+		final JComboBox cb = combo;
+		combo.addActionListener(new ActionListener() {
+
+			// @Override
+			public void actionPerformed(ActionEvent e) {
+				parameters.put(k, v[cb.getSelectedIndex()]);
+			}
+			
+		});
+		c.gridx = 2;
+		c.gridwidth = GridBagConstraints.REMAINDER;
+		panel.add(combo, c);
+		parameters.put(key, values[0]);
+	}
+
 }